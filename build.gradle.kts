@@ -1,5 +1,6 @@
 plugins {
     kotlin("jvm") version "2.1.0"
+    id("me.champeau.jmh") version "0.7.2"
 }
 
 java {
@@ -24,4 +25,13 @@ dependencies {
     }
     implementation("org.xerial:sqlite-jdbc:3.45.3.0")
     implementation("com.fasterxml.jackson.core:jackson-databind:2.15.1")
-}
\ No newline at end of file
+}
+
+jmh {
+    jmhVersion.set("1.37")
+    profilers.add("gc")
+    resultFormat.set("JSON")
+    fork.set(1)
+    warmupIterations.set(3)
+    iterations.set(5)
+}
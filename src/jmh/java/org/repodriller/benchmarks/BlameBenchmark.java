@@ -0,0 +1,58 @@
+package org.repodriller.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.repodriller.scm.BlameCache;
+import org.repodriller.scm.GitRepository;
+import org.repodriller.scm.entities.BlamedLine;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link GitRepository#blame(String)} on HEAD; one operation blames one file, cycling through the files.
+ *
+ * {@link #blame()} runs with a blame cache that holds nothing, so every operation is a JGit blame;
+ * {@link #blameCached()} keeps the default memory cache, so after the first pass it measures cache hits.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+public class BlameBenchmark {
+
+	private GitRepository gitRepository;
+	private GitRepository cachedRepository;
+	private List<String> files;
+	private int next;
+
+	@Setup(Level.Trial)
+	public void setUp(RepositoryState state) {
+		gitRepository = new GitRepository(state.repository.getPath());
+		gitRepository.setBlameCache(new BlameCache(null, 0));
+		cachedRepository = new GitRepository(state.repository.getPath());
+		cachedRepository.setBlameCache(new BlameCache());
+		files = state.repository.getFiles();
+	}
+
+	private String nextFile() {
+		String file = files.get(next);
+		next = (next + 1) % files.size();
+		return file;
+	}
+
+	@Benchmark
+	public List<BlamedLine> blame() {
+		return gitRepository.blame(nextFile());
+	}
+
+	@Benchmark
+	public List<BlamedLine> blameCached() {
+		return cachedRepository.blame(nextFile());
+	}
+}
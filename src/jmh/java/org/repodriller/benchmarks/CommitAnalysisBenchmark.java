@@ -0,0 +1,77 @@
+package org.repodriller.benchmarks;
+
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.repodriller.scm.AnalysisContext;
+import org.repodriller.scm.CommitAnalysis;
+import org.repodriller.scm.CommitStabilityAnalyzer;
+import org.repodriller.scm.CommitTimeline;
+import org.repodriller.scm.GitRepositoryUtil;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-commit analysis: one operation analyses one commit, cycling through the history.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+public class CommitAnalysisBenchmark {
+
+	private AnalysisContext context;
+	private CommitTimeline timeline;
+	private List<RevCommit> history;
+	private List<CommitAnalysis> analyses;
+	private int next;
+
+	@Setup(Level.Trial)
+	public void setUp(RepositoryState state) throws Exception {
+		context = new AnalysisContext(state.git.getRepository());
+		history = state.history;
+		timeline = new CommitTimeline(history);
+		analyses = new ArrayList<>(history.size());
+		for (RevCommit commit : history) {
+			analyses.add(CommitAnalysis.analyze(commit, context));
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		context.close();
+	}
+
+	private int nextPosition() {
+		int position = next;
+		next = (next + 1) % history.size();
+		return position;
+	}
+
+	@Benchmark
+	public Object getCommitsFiles() throws Exception {
+		return GitRepositoryUtil.getCommitsFiles(history.get(nextPosition()), context);
+	}
+
+	@Benchmark
+	public long processCommitSize() {
+		return GitRepositoryUtil.processCommitSize(history.get(nextPosition()), context);
+	}
+
+	/**
+	 * Stability only; the commit's own diff is prepared in the setup, as dbPrepared shares it with the stats.
+	 */
+	@Benchmark
+	public Double stability() throws Exception {
+		int position = nextPosition();
+		return CommitStabilityAnalyzer.analyzeCommit(context, timeline, analyses.get(position), position);
+	}
+}
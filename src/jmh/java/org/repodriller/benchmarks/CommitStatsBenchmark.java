@@ -0,0 +1,90 @@
+package org.repodriller.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.repodriller.util.CommitColumns;
+import org.repodriller.util.CommitRecord;
+import org.repodriller.util.CommitStatsStore;
+import org.repodriller.util.DataBaseUtil;
+import org.repodriller.util.FileEntity;
+import org.repodriller.util.MappedCommitStatsStore;
+import org.repodriller.util.SqliteCommitStatsStore;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Aggregating the size and stability of every commit of a project, read through each {@link CommitStatsStore}.
+ * One operation is one full scan.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+public class CommitStatsBenchmark {
+
+	@Param({"sqlite", "mapped"})
+	public String store;
+
+	@Param({"100000"})
+	public int commits;
+
+	private Path directory;
+	private DataBaseUtil dataBaseUtil;
+	private CommitStatsStore statsStore;
+	private int projectId;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("benchmark-stats");
+		dataBaseUtil = new DataBaseUtil(directory.resolve("repository.db").toString());
+		dataBaseUtil.create();
+		projectId = dataBaseUtil.insertProject("benchmark", directory.toString());
+		statsStore = store.equals("mapped")
+				? new MappedCommitStatsStore(directory.resolve("columns"))
+				: new SqliteCommitStatsStore(dataBaseUtil);
+
+		List<CommitRecord> batch = new ArrayList<>();
+		for (int n = 0; n < commits; n++) {
+			FileEntity stats = new FileEntity(1, 0, 2, n % 50, n % 7, 6, 20, 0);
+			batch.add(new CommitRecord(String.format("%040x", n), n, "alice", "alice@example.com",
+					1000L + n, (n % 10) / 10.0, stats, Collections.emptyList()));
+			if (batch.size() == 500 || n == commits - 1) {
+				dataBaseUtil.insertCommitRecords(projectId, batch);
+				statsStore.append(projectId, batch);
+				batch.clear();
+			}
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		statsStore.close();
+		dataBaseUtil.closeConnection();
+		org.apache.commons.io.FileUtils.deleteDirectory(directory.toFile());
+	}
+
+	@Benchmark
+	public double scanSizeAndStability() {
+		CommitColumns columns = statsStore.columns(projectId);
+		long size = 0;
+		double stability = 0;
+		for (int i = 0; i < columns.getSize(); i++) {
+			size += columns.getProjectSize().get(i);
+			stability += columns.getStability().get(i);
+		}
+		return size + stability;
+	}
+}
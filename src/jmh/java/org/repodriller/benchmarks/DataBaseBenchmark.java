@@ -0,0 +1,97 @@
+package org.repodriller.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.repodriller.util.CommitRecord;
+import org.repodriller.util.DataBaseUtil;
+import org.repodriller.util.FileEntity;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writing commits and their files: one statement per row in autocommit mode against the batched, single
+ * transaction path used by the commit writer. One operation is one commit with {@link #PATHS_PER_COMMIT} files.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+public class DataBaseBenchmark {
+
+	private static final int BATCH_SIZE = 500;
+	private static final int PATHS_PER_COMMIT = 3;
+	private static final int PATH_POOL = 200;
+
+	private Path directory;
+	private DataBaseUtil dataBaseUtil;
+	private int projectId;
+	private long authorId;
+	private long[] filePathIds;
+	private List<String> paths;
+	private long counter;
+
+	@Setup(Level.Iteration)
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("benchmark-db");
+		dataBaseUtil = new DataBaseUtil(directory.resolve("repository.db").toString());
+		dataBaseUtil.create();
+		projectId = dataBaseUtil.insertProject("benchmark", directory.toString());
+		authorId = dataBaseUtil.insertAuthor(projectId, "alice", "alice@example.com");
+		paths = new ArrayList<>(PATH_POOL);
+		filePathIds = new long[PATH_POOL];
+		for (int i = 0; i < PATH_POOL; i++) {
+			paths.add("src/File" + i + ".java");
+			filePathIds[i] = dataBaseUtil.insertFilePath(projectId, paths.get(i));
+		}
+	}
+
+	@TearDown(Level.Iteration)
+	public void tearDown() throws IOException {
+		dataBaseUtil.closeConnection();
+		org.apache.commons.io.FileUtils.deleteDirectory(directory.toFile());
+	}
+
+	private String nextHash() {
+		return String.format("%040x", counter++);
+	}
+
+	private static FileEntity stats() {
+		return new FileEntity(1, 0, 2, 10, 4, 6, 20, 0);
+	}
+
+	@Benchmark
+	public void insertCommitPerRow() {
+		String hash = nextHash();
+		dataBaseUtil.insertCommit(projectId, authorId, hash, (int) counter, 1000L, 0.5, stats());
+		for (int i = 0; i < PATHS_PER_COMMIT; i++) {
+			dataBaseUtil.insertFile(projectId, filePathIds[(int) ((counter + i) % PATH_POOL)], hash, (int) counter);
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH_SIZE)
+	public void insertCommitRecordsBatched() {
+		List<CommitRecord> batch = new ArrayList<>(BATCH_SIZE);
+		for (int n = 0; n < BATCH_SIZE; n++) {
+			String hash = nextHash();
+			List<String> commitPaths = new ArrayList<>(PATHS_PER_COMMIT);
+			for (int i = 0; i < PATHS_PER_COMMIT; i++) {
+				commitPaths.add(paths.get((int) ((counter + i) % PATH_POOL)));
+			}
+			batch.add(new CommitRecord(hash, (int) counter, "alice", "alice@example.com", 1000L, 0.5, stats(), commitPaths));
+		}
+		dataBaseUtil.insertCommitRecords(projectId, batch);
+	}
+}
@@ -0,0 +1,60 @@
+package org.repodriller.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.repodriller.scm.GitRepository;
+import org.repodriller.util.DataBaseUtil;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end {@link GitRepository#dbPrepared()} of the whole synthetic history into an empty database, with and
+ * without {@link GitRepository#setBulkLoad(boolean) bulk loading}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@State(Scope.Thread)
+public class DbPreparedBenchmark {
+
+	@Param({"true", "false"})
+	public boolean bulkLoad;
+
+	private Path directory;
+	private DataBaseUtil dataBaseUtil;
+	private GitRepository gitRepository;
+
+	@Setup(Level.Invocation)
+	public void setUp(RepositoryState state) throws IOException {
+		directory = Files.createTempDirectory("benchmark-db");
+		dataBaseUtil = new DataBaseUtil(directory.resolve("repository.db").toString());
+		dataBaseUtil.create();
+		gitRepository = new GitRepository(state.repository.getPath(), false, dataBaseUtil);
+		gitRepository.setBulkLoad(bulkLoad);
+	}
+
+	@TearDown(Level.Invocation)
+	public void tearDown() throws IOException {
+		dataBaseUtil.closeConnection();
+		org.apache.commons.io.FileUtils.deleteDirectory(directory.toFile());
+	}
+
+	@Benchmark
+	public void dbPrepared() {
+		gitRepository.dbPrepared();
+	}
+}
@@ -0,0 +1,53 @@
+package org.repodriller.benchmarks;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One synthetic repository per trial, with its commits parsed newest first like {@code dbPrepared} lists them.
+ */
+@State(Scope.Benchmark)
+public class RepositoryState {
+
+	@Param({"300"})
+	public int commits;
+
+	@Param({"40"})
+	public int files;
+
+	@Param({"42"})
+	public long seed;
+
+	public SyntheticRepository repository;
+	public Git git;
+	public List<RevCommit> history;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		repository = SyntheticRepository.create(commits, files, seed);
+		git = Git.open(new java.io.File(repository.getPath()));
+		history = new ArrayList<>();
+		try (RevWalk walk = new RevWalk(git.getRepository())) {
+			walk.markStart(walk.parseCommit(git.getRepository().resolve("HEAD")));
+			for (RevCommit commit : walk) {
+				history.add(commit);
+			}
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception {
+		git.close();
+		repository.close();
+	}
+}
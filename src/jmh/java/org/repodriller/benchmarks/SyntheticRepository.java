@@ -0,0 +1,125 @@
+package org.repodriller.benchmarks;
+
+import org.apache.commons.io.FileUtils;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.PersonIdent;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Git repository with a reproducible history, built locally with JGit.
+ *
+ * The same seed, commit count and file count always give the same commit ids: contents come from a seeded
+ * Random and author and committer times are fixed. Each commit rewrites a few lines of a few files, so diffs,
+ * stability and blame have realistic work to do.
+ */
+public class SyntheticRepository implements AutoCloseable {
+
+	private static final String[] AUTHORS = {"alice", "bob", "carol", "dave"};
+	private static final Instant EPOCH = Instant.parse("2020-01-01T00:00:00Z");
+	private static final int INITIAL_LINES = 200;
+
+	private final Path directory;
+	private final List<String> files;
+
+	private SyntheticRepository(Path directory, List<String> files) {
+		this.directory = directory;
+		this.files = files;
+	}
+
+	public static SyntheticRepository create(int commits, int fileCount, long seed) throws IOException, GitAPIException {
+		Path directory = Files.createTempDirectory("synthetic-repo");
+		Random random = new Random(seed);
+		List<String> files = new ArrayList<>();
+		List<List<String>> contents = new ArrayList<>();
+		for (int i = 0; i < fileCount; i++) {
+			files.add("src/module" + (i % 5) + "/File" + i + ".java");
+			List<String> lines = new ArrayList<>();
+			for (int line = 0; line < INITIAL_LINES; line++) {
+				lines.add(randomLine(random));
+			}
+			contents.add(lines);
+		}
+
+		try (Git git = Git.init().setDirectory(directory.toFile()).setInitialBranch("master").call()) {
+			for (int c = 0; c < commits; c++) {
+				if (c == 0) {
+					for (int i = 0; i < fileCount; i++) {
+						write(directory, files.get(i), contents.get(i));
+					}
+				} else {
+					int touched = 1 + random.nextInt(3);
+					for (int t = 0; t < touched; t++) {
+						int i = random.nextInt(fileCount);
+						mutate(contents.get(i), random);
+						write(directory, files.get(i), contents.get(i));
+					}
+				}
+				String author = AUTHORS[random.nextInt(AUTHORS.length)];
+				PersonIdent ident = new PersonIdent(author, author + "@example.com",
+						EPOCH.plusSeconds(c * 6L * 3600), ZoneOffset.UTC);
+				git.add().addFilepattern(".").call();
+				git.commit().setMessage("Commit " + c).setAuthor(ident).setCommitter(ident).setSign(false).call();
+			}
+		}
+		return new SyntheticRepository(directory, files);
+	}
+
+	private static void mutate(List<String> lines, Random random) {
+		int edits = 1 + random.nextInt(4);
+		for (int e = 0; e < edits; e++) {
+			int at = random.nextInt(lines.size() + 1);
+			switch (random.nextInt(3)) {
+				case 0 -> {
+					for (int n = random.nextInt(10); n >= 0; n--) lines.add(at, randomLine(random));
+				}
+				case 1 -> {
+					for (int n = random.nextInt(5); n >= 0 && at < lines.size() && lines.size() > 1; n--) lines.remove(at);
+				}
+				default -> {
+					for (int n = random.nextInt(5); n >= 0 && at < lines.size(); n--) lines.set(at++, randomLine(random));
+				}
+			}
+		}
+	}
+
+	private static String randomLine(Random random) {
+		StringBuilder sb = new StringBuilder("    ");
+		for (int i = 10 + random.nextInt(60); i > 0; i--) {
+			sb.append((char) ('a' + random.nextInt(26)));
+		}
+		return sb.append(';').toString();
+	}
+
+	private static void write(Path directory, String file, List<String> lines) throws IOException {
+		Path path = directory.resolve(file);
+		Files.createDirectories(path.getParent());
+		Files.write(path, lines, StandardCharsets.UTF_8);
+	}
+
+	public String getPath() {
+		return directory.toString();
+	}
+
+	/**
+	 * @return Paths of all files, relative to the repository root.
+	 */
+	public List<String> getFiles() {
+		return files;
+	}
+
+	@Override
+	public void close() throws IOException {
+		FileUtils.deleteDirectory(new File(getPath()));
+	}
+}
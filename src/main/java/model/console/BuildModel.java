@@ -8,6 +8,7 @@ import org.repodriller.scm.GitRepository;
 import org.repodriller.scm.SCMRepository;
 import org.repodriller.scm.SingleGitRemoteRepositoryBuilder;
 import org.repodriller.scm.exceptions.CheckoutException;
+import org.repodriller.scm.metrics.IngestMetrics;
 import org.repodriller.util.DataBaseUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -34,6 +35,8 @@ public class BuildModel {
     BuildModel buildModel = new BuildModel();
 
     SCMRepository repo = buildModel.getRepository(gitUrl, tempDir + "/a-foundation", tempDir + "/db");
+    IngestMetrics metrics = new IngestMetrics();
+    repo.getScm().addIngestListener(metrics);
 
     long startTime = System.currentTimeMillis();
     repo.getScm().dbPrepared();
@@ -42,6 +45,7 @@ public class BuildModel {
     System.out.println("dbPrepared executed in " + executionTime + " ms");
 
     repo.getScm().getDeveloperInfo();
+    System.out.println(metrics);
   }
 
   public SCMRepository createClone(String gitUrl) {
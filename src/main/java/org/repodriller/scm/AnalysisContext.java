@@ -0,0 +1,133 @@
+package org.repodriller.scm;
+
+import org.eclipse.jgit.diff.DiffFormatter;
+import org.eclipse.jgit.diff.RawTextComparator;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.storage.pack.PackConfig;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentLinkedDeque;
+
+/**
+ * Reusable state for analysing commits on one thread: a single ObjectReader, a DiffFormatter and a TreeWalk on
+ * top of it, and a scratch buffer for formatted patches. Keeping them across commits keeps the reader's inflater
+ * and delta-base caches warm instead of starting cold for every diff.
+ *
+ * Not thread-safe; use a {@link Pool} to lend each running task its own context.
+ */
+public class AnalysisContext implements AutoCloseable {
+
+	/* Same as JGit's default, files above it are diffed as binary. */
+	public static final int BINARY_FILE_THRESHOLD = PackConfig.DEFAULT_BIG_FILE_THRESHOLD;
+
+	private final Repository repository;
+	private final ObjectReader reader;
+	private final ByteArrayOutputStream out;
+	private final DiffFormatter diffFormatter;
+	private final TreeWalk treeWalk;
+
+	public AnalysisContext(Repository repository) {
+		this.repository = repository;
+		this.reader = repository.newObjectReader();
+		this.out = new ByteArrayOutputStream();
+		this.diffFormatter = new DiffFormatter(out);
+		diffFormatter.setReader(reader, repository.getConfig());
+		diffFormatter.setDiffComparator(RawTextComparator.DEFAULT);
+		diffFormatter.setDetectRenames(true);
+		diffFormatter.setBinaryFileThreshold(BINARY_FILE_THRESHOLD);
+		this.treeWalk = new TreeWalk(repository, reader);
+	}
+
+	public Repository getRepository() {
+		return repository;
+	}
+
+	public ObjectReader getReader() {
+		return reader;
+	}
+
+	/**
+	 * @return Formatter with rename detection, writing into {@link #getOut()}.
+	 */
+	public DiffFormatter getDiffFormatter() {
+		return diffFormatter;
+	}
+
+	/**
+	 * @return Recursive, unfiltered TreeWalk on the shared reader, reset to no trees.
+	 */
+	public TreeWalk getTreeWalk() {
+		treeWalk.reset();
+		treeWalk.setRecursive(true);
+		treeWalk.setFilter(TreeFilter.ALL);
+		return treeWalk;
+	}
+
+	/**
+	 * @return Scratch buffer the formatter writes into; reset it before use.
+	 */
+	public ByteArrayOutputStream getOut() {
+		return out;
+	}
+
+	@Override
+	public void close() {
+		treeWalk.close();
+		diffFormatter.close();
+		reader.close();
+	}
+
+	/**
+	 * Lends contexts to the tasks of a run and closes all of them at the end.
+	 *
+	 * A task borrows a context for its duration and gives it back, so the number of contexts follows the number
+	 * of tasks running at once rather than the threads the executor happens to use; short-lived or virtual
+	 * threads do not each leave a context behind. The most recently returned context is lent first, as its
+	 * reader caches are the warmest.
+	 */
+	public static class Pool implements AutoCloseable {
+
+		private final Repository repository;
+		private final Deque<AnalysisContext> idle = new ConcurrentLinkedDeque<>();
+		private volatile boolean closed;
+
+		public Pool(Repository repository) {
+			this.repository = repository;
+		}
+
+		public AnalysisContext borrow() {
+			if (closed) {
+				throw new IllegalStateException("The context pool is closed");
+			}
+			AnalysisContext context = idle.pollFirst();
+			return context != null ? context : new AnalysisContext(repository);
+		}
+
+		/**
+		 * Give back a context from {@link #borrow()}; it is closed if the pool already is.
+		 */
+		public void release(AnalysisContext context) {
+			idle.addFirst(context);
+			if (closed) {
+				closeIdle();
+			}
+		}
+
+		@Override
+		public void close() {
+			closed = true;
+			closeIdle();
+		}
+
+		private void closeIdle() {
+			AnalysisContext context;
+			while ((context = idle.pollFirst()) != null) {
+				context.close();
+			}
+		}
+	}
+}
@@ -0,0 +1,235 @@
+package org.repodriller.scm;
+
+import org.repodriller.util.DataBaseUtil;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Blame results by project, path and the last commit that touched the path, in two tiers: a memory LRU bounded by
+ * the total number of lines held, and optionally the BlameSnapshots table of a {@link DataBaseUtil}, which outlives
+ * the process. Such a blame never changes, so entries are never invalidated, only evicted.
+ *
+ * The disk tier only holds paths the project has ingested. Its rows record the last blame head that used them:
+ * {@link DataBaseUtil#pruneBlameHeads} drops the rows no kept head used, and once this cache has written a
+ * tenth of its byte budget since the last check, the least recently used rows beyond the budget are dropped.
+ *
+ * Finding the last commit that touched a path is up to the caller, see {@link GitRepository}.
+ */
+public class BlameCache {
+
+	public static final long DEFAULT_MAX_LINES = 1_000_000;
+	public static final long DEFAULT_MAX_DISK_BYTES = 256L * 1024 * 1024;
+
+	/**
+	 * Computes a blame that is not cached yet.
+	 */
+	@FunctionalInterface
+	public interface Loader {
+		/**
+		 * @return The blame, or null when the path has none; null is not cached.
+		 */
+		BlameSnapshot load() throws Exception;
+	}
+
+	private final DataBaseUtil diskTier;
+	private final long maxLines;
+	private final long maxDiskBytes;
+	private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+	private long lines;
+	private final AtomicLong diskBytesWritten = new AtomicLong();
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder diskHits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	public BlameCache() {
+		this(null);
+	}
+
+	/**
+	 * @param diskTier Database that keeps the blames across runs, or null for memory only.
+	 */
+	public BlameCache(DataBaseUtil diskTier) {
+		this(diskTier, DEFAULT_MAX_LINES);
+	}
+
+	public BlameCache(DataBaseUtil diskTier, long maxLines) {
+		this(diskTier, maxLines, DEFAULT_MAX_DISK_BYTES);
+	}
+
+	/**
+	 * @param maxDiskBytes Encoded bytes the disk tier keeps per project.
+	 */
+	public BlameCache(DataBaseUtil diskTier, long maxLines, long maxDiskBytes) {
+		this.diskTier = diskTier;
+		this.maxLines = maxLines;
+		this.maxDiskBytes = maxDiskBytes;
+	}
+
+	/**
+	 * @param projectId Project of the path; the disk tier is only used when it is not null.
+	 * @param commit The last commit that touched {@code path}.
+	 * @return The cached blame, or the result of {@code loader}, which is then cached in both tiers.
+	 */
+	public BlameSnapshot get(Integer projectId, String path, String commit, boolean followRenames, Loader loader) throws Exception {
+		Key key = new Key(projectId, path, commit, followRenames);
+		Long filePathId = diskTier != null && projectId != null ? diskTier.filePathIds(projectId).get(path) : null;
+		Entry entry;
+		synchronized (this) {
+			entry = entries.get(key);
+		}
+		if (entry != null) {
+			hits.increment();
+			if (filePathId != null) {
+				markUsed(entry, projectId, filePathId, commit, followRenames);
+			}
+			return entry.snapshot;
+		}
+		if (filePathId != null) {
+			long epoch = diskTier.blameHeadEpoch();
+			byte[] encoded = diskTier.getBlameSnapshot(projectId, filePathId, commit, followRenames);
+			BlameSnapshot snapshot = encoded != null ? BlameSnapshot.decode(encoded) : null;
+			if (snapshot != null) {
+				diskHits.increment();
+				diskTier.touchBlameSnapshot(projectId, filePathId, commit, followRenames);
+				put(key, new Entry(snapshot, epoch));
+				return snapshot;
+			}
+		}
+		misses.increment();
+		/* Loaded outside the lock; two callers may load the same key, both get the same result. */
+		BlameSnapshot snapshot = loader.load();
+		if (snapshot != null) {
+			long epoch = filePathId != null ? diskTier.blameHeadEpoch() : 0;
+			if (filePathId != null) {
+				byte[] encoded = snapshot.encode();
+				diskTier.putBlameSnapshot(projectId, filePathId, commit, followRenames, encoded);
+				written(projectId, encoded.length);
+			}
+			put(key, new Entry(snapshot, epoch));
+		}
+		return snapshot;
+	}
+
+	/* A memory hit still counts as a use of the disk row, once per blamed head. */
+	private void markUsed(Entry entry, int projectId, long filePathId, String commit, boolean followRenames) {
+		long epoch = diskTier.blameHeadEpoch();
+		if (entry.epoch != epoch) {
+			entry.epoch = epoch;
+			diskTier.touchBlameSnapshot(projectId, filePathId, commit, followRenames);
+		}
+	}
+
+	private void written(int projectId, long bytes) {
+		long check = Math.max(maxDiskBytes / 10, 1);
+		if (diskBytesWritten.addAndGet(bytes) >= check) {
+			diskBytesWritten.set(0);
+			diskTier.pruneBlameSnapshots(projectId, maxDiskBytes);
+		}
+	}
+
+	/**
+	 * @return Blames found in memory.
+	 */
+	public long getHits() {
+		return hits.sum();
+	}
+
+	/**
+	 * @return Blames found on disk but not in memory.
+	 */
+	public long getDiskHits() {
+		return diskHits.sum();
+	}
+
+	/**
+	 * @return Blames that had to be computed.
+	 */
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	public long getEvictions() {
+		return evictions.sum();
+	}
+
+	/**
+	 * Empty the memory tier; the disk tier is kept.
+	 */
+	public synchronized void clear() {
+		entries.clear();
+		lines = 0;
+	}
+
+	@Override
+	public String toString() {
+		return "BlameCache [hits=" + getHits() + ", diskHits=" + getDiskHits() + ", misses=" + getMisses()
+				+ ", evictions=" + getEvictions() + "]";
+	}
+
+	private synchronized void put(Key key, Entry entry) {
+		long weight = weigh(entry.snapshot);
+		if (weight > maxLines) {
+			return;
+		}
+		Entry previous = entries.put(key, entry);
+		if (previous != null) {
+			lines -= weigh(previous.snapshot);
+		}
+		lines += weight;
+		Iterator<Entry> eldest = entries.values().iterator();
+		while (lines > maxLines && eldest.hasNext()) {
+			lines -= weigh(eldest.next().snapshot);
+			eldest.remove();
+			evictions.increment();
+		}
+	}
+
+	private static long weigh(BlameSnapshot snapshot) {
+		return snapshot.size() + 1L;
+	}
+
+	private static final class Entry {
+		private final BlameSnapshot snapshot;
+		/* Blame head epoch of the disk tier when the row was last marked used. */
+		private volatile long epoch;
+
+		Entry(BlameSnapshot snapshot, long epoch) {
+			this.snapshot = snapshot;
+			this.epoch = epoch;
+		}
+	}
+
+	private static final class Key {
+		private final Integer projectId;
+		private final String path;
+		private final String commit;
+		private final boolean followRenames;
+
+		Key(Integer projectId, String path, String commit, boolean followRenames) {
+			this.projectId = projectId;
+			this.path = path;
+			this.commit = commit;
+			this.followRenames = followRenames;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) o;
+			return followRenames == other.followRenames && Objects.equals(projectId, other.projectId)
+					&& path.equals(other.path) && commit.equals(other.commit);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(projectId, path, commit, followRenames);
+		}
+	}
+}
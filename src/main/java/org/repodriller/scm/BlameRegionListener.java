@@ -0,0 +1,22 @@
+package org.repodriller.scm;
+
+import org.eclipse.jgit.revwalk.RevCommit;
+
+/**
+ * Receives the regions of a streaming blame, see {@link GitRepository#blame(String, BlameRegionListener)}.
+ */
+@FunctionalInterface
+public interface BlameRegionListener {
+
+	/**
+	 * One run of consecutive lines that come from the same commit. Regions arrive in the order the history walk
+	 * finds them, not in line order, and never overlap.
+	 *
+	 * @param blame The blame in progress: the authors seen so far, and the text of any line.
+	 * @param resultStart First line of the region in the blamed file, counted from 0.
+	 * @param length Number of lines in the region.
+	 * @param commit Commit the lines come from, or null for lines that are not committed yet.
+	 * @param author Index of the author in {@link BlameRegions#getAuthor(int)}, or -1 when there is no commit.
+	 */
+	void region(BlameRegions blame, int resultStart, int length, RevCommit commit, int author);
+}
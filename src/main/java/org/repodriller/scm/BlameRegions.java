@@ -0,0 +1,99 @@
+package org.repodriller.scm;
+
+import org.eclipse.jgit.blame.BlameGenerator;
+import org.eclipse.jgit.diff.RawText;
+import org.eclipse.jgit.lib.PersonIdent;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A blame streamed region by region to a {@link BlameRegionListener} instead of being collected line by line.
+ *
+ * Nothing is kept per line: authors are stored once each and referred to by index, and the text of a line is
+ * only decoded when {@link #getLine(int)} asks for it. What a blame allocates therefore grows with the number
+ * of regions, not with the size of the file.
+ */
+public class BlameRegions {
+
+	private final String path;
+	private final List<PersonIdent> authors = new ArrayList<>();
+	private final Map<String, Integer> authorIndexes = new HashMap<>();
+	private RawText contents;
+	private int regions;
+
+	private BlameRegions(String path) {
+		this.path = path;
+	}
+
+	/**
+	 * Run {@code generator}, which must have its start pushed already, to the end.
+	 */
+	static BlameRegions stream(BlameGenerator generator, BlameRegionListener listener) throws IOException {
+		BlameRegions blame = new BlameRegions(generator.getResultPath());
+		/* The generator only knows the text of the blamed file before it starts walking. */
+		blame.contents = generator.getResultContents();
+		if (blame.contents == null) {
+			return blame;
+		}
+		while (generator.next()) {
+			PersonIdent author = generator.getSourceCommit() != null ? generator.getSourceAuthor() : null;
+			blame.regions++;
+			listener.region(blame, generator.getResultStart(), generator.getRegionLength(), generator.getSourceCommit(),
+					author != null ? blame.author(author) : -1);
+		}
+		return blame;
+	}
+
+	private int author(PersonIdent author) {
+		return authorIndexes.computeIfAbsent(author.getName() + '\n' + author.getEmailAddress(), k -> {
+			authors.add(author);
+			return authors.size() - 1;
+		});
+	}
+
+	public String getPath() {
+		return path;
+	}
+
+	public PersonIdent getAuthor(int index) {
+		return authors.get(index);
+	}
+
+	public int getAuthorCount() {
+		return authors.size();
+	}
+
+	/**
+	 * @return Number of regions streamed so far.
+	 */
+	public int getRegionCount() {
+		return regions;
+	}
+
+	/**
+	 * @return Number of lines of the blamed file, 0 when there was nothing to blame.
+	 */
+	public int getLineCount() {
+		return contents != null ? contents.size() : 0;
+	}
+
+	/**
+	 * @return Text of line {@code line} of the blamed file, without its line terminator.
+	 */
+	public String getLine(int line) {
+		if (contents == null) {
+			throw new IndexOutOfBoundsException("Nothing was blamed: " + line);
+		}
+		return contents.getString(line);
+	}
+
+	@Override
+	public String toString() {
+		return "BlameRegions [path=" + path + ", lines=" + getLineCount() + ", regions=" + regions
+				+ ", authors=" + authors.size() + "]";
+	}
+}
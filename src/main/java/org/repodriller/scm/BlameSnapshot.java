@@ -0,0 +1,249 @@
+package org.repodriller.scm;
+
+import org.eclipse.jgit.blame.BlameResult;
+import org.eclipse.jgit.diff.RawText;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.revwalk.RevCommit;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The per-line result of a blame, without the file content: source commit, author, committer, source path and
+ * byte length of every line. Distinct values are stored once and referenced by index.
+ *
+ * A blame only depends on the history of the file, so a snapshot taken at the last commit that touched a path
+ * is valid at every later commit that did not touch it; see {@link BlameCache}.
+ */
+public class BlameSnapshot {
+
+	private static final byte FORMAT = 2;
+
+	private final String[] commits;
+	private final String[] authorNames;
+	private final String[] authorEmails;
+	private final String[] committerNames;
+	private final String[] sourcePaths;
+	/* Per line: indexes into the arrays above, and the length in bytes. */
+	private final int[] lineCommit;
+	private final int[] lineAuthor;
+	private final int[] lineCommitter;
+	private final int[] linePath;
+	private final int[] lineBytes;
+
+	private BlameSnapshot(String[] commits, String[] authorNames, String[] authorEmails, String[] committerNames,
+						  String[] sourcePaths, int[] lineCommit, int[] lineAuthor, int[] lineCommitter, int[] linePath,
+						  int[] lineBytes) {
+		this.commits = commits;
+		this.authorNames = authorNames;
+		this.authorEmails = authorEmails;
+		this.committerNames = committerNames;
+		this.sourcePaths = sourcePaths;
+		this.lineCommit = lineCommit;
+		this.lineAuthor = lineAuthor;
+		this.lineCommitter = lineCommitter;
+		this.linePath = linePath;
+		this.lineBytes = lineBytes;
+	}
+
+	public static BlameSnapshot of(BlameResult result) {
+		RawText contents = result.getResultContents();
+		int lines = contents.size();
+		Interner commits = new Interner();
+		Interner authors = new Interner();
+		Interner committers = new Interner();
+		Interner paths = new Interner();
+		List<String> authorEmails = new ArrayList<>();
+		int[] lineCommit = new int[lines];
+		int[] lineAuthor = new int[lines];
+		int[] lineCommitter = new int[lines];
+		int[] linePath = new int[lines];
+		int[] lineBytes = new int[lines];
+		for (int i = 0; i < lines; i++) {
+			RevCommit commit = result.getSourceCommit(i);
+			PersonIdent author = result.getSourceAuthor(i);
+			lineCommit[i] = commits.intern(commit.getName());
+			lineAuthor[i] = authors.intern(author.getName() + '\n' + author.getEmailAddress());
+			if (lineAuthor[i] == authorEmails.size()) {
+				authorEmails.add(author.getEmailAddress());
+			}
+			lineCommitter[i] = committers.intern(result.getSourceCommitter(i).getName());
+			linePath[i] = paths.intern(result.getSourcePath(i));
+			lineBytes[i] = contents.getString(i).getBytes().length;
+		}
+		String[] authorNames = authors.values();
+		for (int a = 0; a < authorNames.length; a++) {
+			authorNames[a] = authorNames[a].substring(0, authorNames[a].lastIndexOf('\n'));
+		}
+		return new BlameSnapshot(commits.values(), authorNames, authorEmails.toArray(new String[0]), committers.values(),
+				paths.values(), lineCommit, lineAuthor, lineCommitter, linePath, lineBytes);
+	}
+
+	public int size() {
+		return lineCommit.length;
+	}
+
+	public String getCommit(int line) {
+		return commits[lineCommit[line]];
+	}
+
+	public String getAuthorName(int line) {
+		return authorNames[lineAuthor[line]];
+	}
+
+	public String getAuthorEmail(int line) {
+		return authorEmails[lineAuthor[line]];
+	}
+
+	public String getCommitterName(int line) {
+		return committerNames[lineCommitter[line]];
+	}
+
+	public String getSourcePath(int line) {
+		return sourcePaths[linePath[line]];
+	}
+
+	public int getLineBytes(int line) {
+		return lineBytes[line];
+	}
+
+	/**
+	 * Commits are written as raw ids and the other values as UTF strings, each distinct value once. The lines are
+	 * written as runs of consecutive lines with the same commit, author, committer and source path, that is one
+	 * run per blame region, followed by the byte length of every line. Counts, indexes and lengths are varints.
+	 */
+	public byte[] encode() {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			out.writeByte(FORMAT);
+			writeVarint(out, commits.length);
+			for (String commit : commits) {
+				ObjectId.fromString(commit).copyRawTo(out);
+			}
+			for (String[] values : new String[][] {authorNames, authorEmails, committerNames, sourcePaths}) {
+				writeVarint(out, values.length);
+				for (String value : values) {
+					out.writeUTF(value);
+				}
+			}
+			writeVarint(out, size());
+			int runs = 0;
+			for (int i = 0; i < size(); i++) {
+				if (startsRun(i)) {
+					runs++;
+				}
+			}
+			writeVarint(out, runs);
+			for (int start = 0; start < size(); ) {
+				int end = start + 1;
+				while (end < size() && !startsRun(end)) {
+					end++;
+				}
+				writeVarint(out, end - start);
+				writeVarint(out, lineCommit[start]);
+				writeVarint(out, lineAuthor[start]);
+				writeVarint(out, lineCommitter[start]);
+				writeVarint(out, linePath[start]);
+				start = end;
+			}
+			for (int length : lineBytes) {
+				writeVarint(out, length);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * @return The snapshot, or null when it was written in a format this version does not read.
+	 */
+	public static BlameSnapshot decode(byte[] encoded) {
+		try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(encoded))) {
+			if (in.readByte() != FORMAT) {
+				return null;
+			}
+			String[] commits = new String[readVarint(in)];
+			byte[] raw = new byte[Constants.OBJECT_ID_LENGTH];
+			for (int i = 0; i < commits.length; i++) {
+				in.readFully(raw);
+				commits[i] = ObjectId.fromRaw(raw).getName();
+			}
+			String[][] values = new String[4][];
+			for (int v = 0; v < values.length; v++) {
+				values[v] = new String[readVarint(in)];
+				for (int i = 0; i < values[v].length; i++) {
+					values[v][i] = in.readUTF();
+				}
+			}
+			int lines = readVarint(in);
+			int[][] columns = new int[5][lines];
+			int runs = readVarint(in);
+			for (int r = 0, line = 0; r < runs; r++) {
+				int end = line + readVarint(in);
+				for (int c = 0; c < 4; c++) {
+					Arrays.fill(columns[c], line, end, readVarint(in));
+				}
+				line = end;
+			}
+			for (int i = 0; i < lines; i++) {
+				columns[4][i] = readVarint(in);
+			}
+			return new BlameSnapshot(commits, values[0], values[1], values[2], values[3],
+					columns[0], columns[1], columns[2], columns[3], columns[4]);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private boolean startsRun(int line) {
+		return line == 0 || lineCommit[line] != lineCommit[line - 1] || lineAuthor[line] != lineAuthor[line - 1]
+				|| lineCommitter[line] != lineCommitter[line - 1] || linePath[line] != linePath[line - 1];
+	}
+
+	private static void writeVarint(DataOutputStream out, int value) throws IOException {
+		while ((value & ~0x7f) != 0) {
+			out.writeByte(value & 0x7f | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte(value);
+	}
+
+	private static int readVarint(DataInputStream in) throws IOException {
+		int result = 0;
+		for (int shift = 0; ; shift += 7) {
+			int b = in.readUnsignedByte();
+			result |= (b & 0x7f) << shift;
+			if ((b & 0x80) == 0) {
+				return result;
+			}
+		}
+	}
+
+	private static final class Interner {
+		private final Map<String, Integer> indexes = new HashMap<>();
+		private final List<String> values = new ArrayList<>();
+
+		int intern(String value) {
+			return indexes.computeIfAbsent(value, k -> {
+				values.add(k);
+				return values.size() - 1;
+			});
+		}
+
+		String[] values() {
+			return values.toArray(new String[0]);
+		}
+	}
+}
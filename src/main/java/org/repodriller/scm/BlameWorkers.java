@@ -0,0 +1,118 @@
+package org.repodriller.scm;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.revwalk.RevWalk;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentLinkedDeque;
+
+/**
+ * Lends repository handles to the blame tasks of a run and closes all of them at the end.
+ *
+ * Every worker opens the repository itself and walks with its own {@link RevWalk} and object reader, so workers
+ * share no JGit state beyond the process-wide caches. A task borrows a worker for its duration and gives it back,
+ * so the number of open handles follows the number of tasks running at once rather than the threads of the
+ * executor. {@link #close()} waits for the workers still lent out, so none is closed under a running task.
+ */
+class BlameWorkers implements AutoCloseable {
+
+	static class Worker implements AutoCloseable {
+		private final Git git;
+		private final RevWalk walk;
+
+		private Worker(Git git) {
+			this.git = git;
+			this.walk = new RevWalk(git.getRepository());
+		}
+
+		Git getGit() {
+			return git;
+		}
+
+		/**
+		 * @return A walk that is never given a tree filter, so the commits it parses keep their real parents.
+		 */
+		RevWalk getWalk() {
+			return walk;
+		}
+
+		@Override
+		public void close() {
+			walk.close();
+			git.close();
+		}
+	}
+
+	private final String path;
+	private final Deque<Worker> idle = new ConcurrentLinkedDeque<>();
+	/* Guarded by this. */
+	private int borrowed;
+	private boolean closed;
+
+	BlameWorkers(String path) {
+		this.path = path;
+	}
+
+	Worker borrow() throws IOException {
+		synchronized (this) {
+			if (closed) {
+				throw new IllegalStateException("The blame workers are closed");
+			}
+			borrowed++;
+		}
+		Worker worker = idle.pollFirst();
+		if (worker != null) {
+			return worker;
+		}
+		try {
+			return new Worker(Git.open(new File(path)));
+		} catch (IOException | RuntimeException e) {
+			returned();
+			throw e;
+		}
+	}
+
+	/**
+	 * Give back a worker from {@link #borrow()}; it is closed if the workers already are.
+	 */
+	void release(Worker worker) {
+		idle.addFirst(worker);
+		if (returned()) {
+			closeIdle();
+		}
+	}
+
+	/**
+	 * @return Whether the workers are closed.
+	 */
+	private synchronized boolean returned() {
+		borrowed--;
+		notifyAll();
+		return closed;
+	}
+
+	@Override
+	public void close() {
+		synchronized (this) {
+			closed = true;
+			try {
+				while (borrowed > 0) {
+					wait();
+				}
+			} catch (InterruptedException e) {
+				/* The workers still lent out are closed as they come back. */
+				Thread.currentThread().interrupt();
+			}
+		}
+		closeIdle();
+	}
+
+	private void closeIdle() {
+		Worker worker;
+		while ((worker = idle.pollFirst()) != null) {
+			worker.close();
+		}
+	}
+}
@@ -0,0 +1,164 @@
+package org.repodriller.scm;
+
+import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.diff.DiffFormatter;
+import org.eclipse.jgit.diff.Edit;
+import org.eclipse.jgit.diff.EditList;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.repodriller.util.FileEntity;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Everything derived from diffing a commit against its first parent, computed in a single pass.
+ *
+ * The diff entries and their EditLists are shared by the line statistics, the stability analysis and the
+ * project size, so each commit is diffed against its parent only once.
+ */
+public class CommitAnalysis {
+
+	private static final long NO_SIZE_DELTA = Long.MIN_VALUE;
+
+	private final RevCommit commit;
+	private final List<DiffEntry> diffs;
+	private final List<EditList> editLists;
+	private final Map<String, FileEntity> files;
+	private final long sizeDelta;
+
+	private CommitAnalysis(RevCommit commit, List<DiffEntry> diffs, List<EditList> editLists,
+						   Map<String, FileEntity> files, long sizeDelta) {
+		this.commit = commit;
+		this.diffs = diffs;
+		this.editLists = editLists;
+		this.files = files;
+		this.sizeDelta = sizeDelta;
+	}
+
+	/**
+	 * Analyse {@code commit} without its size delta, for callers that only need the diffs or the file statistics.
+	 */
+	public static CommitAnalysis analyze(RevCommit commit, AnalysisContext context) throws IOException {
+		return analyze(commit, context, null);
+	}
+
+	/**
+	 * @param sizes Cache to read blob sizes through, or null to skip the size delta and the blob headers it reads.
+	 */
+	public static CommitAnalysis analyze(RevCommit commit, AnalysisContext context, ObjectSizeCache sizes) throws IOException {
+		DiffFormatter diffFormatter = context.getDiffFormatter();
+		RevCommit parent = (commit.getParentCount() > 0) ? commit.getParent(0) : null;
+		List<DiffEntry> diffs = diffFormatter.scan(parent, commit);
+		List<EditList> editLists = new ArrayList<>(diffs.size());
+		Map<String, FileEntity> files = new HashMap<>();
+		long sizeDelta = sizes != null ? 0 : NO_SIZE_DELTA;
+
+		for (DiffEntry diff : diffs) {
+			EditList editList = diffFormatter.toFileHeader(diff).toEditList();
+			editLists.add(editList);
+			files.computeIfAbsent(diff.getNewPath(), path -> new FileEntity(0, 0, 0, 0, 0, 0, 0, 0)).add(fileStats(diff, editList));
+			if (sizes != null) {
+				sizeDelta += blobSizeDelta(diff, context.getReader(), sizes);
+			}
+		}
+		return new CommitAnalysis(commit, Collections.unmodifiableList(diffs), Collections.unmodifiableList(editLists),
+				files, sizeDelta);
+	}
+
+	private static FileEntity fileStats(DiffEntry diff, EditList editList) {
+		int fileAdded = 0, fileDeleted = 0, fileModified = 0, linesAdded = 0, linesDeleted = 0, linesModified = 0, changes = 0;
+		switch (diff.getChangeType()) {
+			case ADD -> fileAdded++;
+			case DELETE -> fileDeleted++;
+			case MODIFY -> fileModified++;
+		}
+		for (Edit edit : editList) {
+			switch (edit.getType()) {
+				case INSERT -> {
+					linesAdded += edit.getLengthB();
+					changes += edit.getLengthB();
+				}
+				case DELETE -> {
+					linesDeleted += edit.getLengthA();
+					changes += edit.getLengthA();
+				}
+				case REPLACE -> {
+					//TODO getLengthA (removed)  getLengthB (added) - maybe max(A,B) or just B
+					linesModified += edit.getLengthA() + edit.getLengthB();
+					changes += edit.getLengthA() + edit.getLengthB();
+				}
+			}
+		}
+		return new FileEntity(fileAdded, fileDeleted, fileModified, linesAdded, linesDeleted, linesModified, changes, 0);
+	}
+
+	private static long blobSizeDelta(DiffEntry diff, ObjectReader reader, ObjectSizeCache sizes) throws IOException {
+		long delta = 0;
+		/* A copy leaves its source in place, so only the new side counts. */
+		if (diff.getChangeType() != DiffEntry.ChangeType.COPY && isBlob(diff.getOldMode())) {
+			delta -= sizes.getBlobSize(diff.getOldId().toObjectId(), reader);
+		}
+		if (isBlob(diff.getNewMode())) {
+			delta += sizes.getBlobSize(diff.getNewId().toObjectId(), reader);
+		}
+		return delta;
+	}
+
+	private static boolean isBlob(FileMode mode) {
+		return mode.getObjectType() == Constants.OBJ_BLOB;
+	}
+
+	public RevCommit getCommit() {
+		return commit;
+	}
+
+	public List<DiffEntry> getDiffs() {
+		return diffs;
+	}
+
+	/**
+	 * @return EditList of each entry of {@link #getDiffs()}, in the same order.
+	 */
+	public List<EditList> getEditLists() {
+		return editLists;
+	}
+
+	/**
+	 * @return Line and file statistics per new path.
+	 */
+	public Map<String, FileEntity> getFiles() {
+		return files;
+	}
+
+	public Set<String> getPaths() {
+		return files.keySet();
+	}
+
+	/**
+	 * @return Sum of the blob sizes added by this commit minus the sum of the blob sizes it removed.
+	 * @throws IllegalStateException If the commit was analysed without a size cache.
+	 */
+	public long getSizeDelta() {
+		if (sizeDelta == NO_SIZE_DELTA) {
+			throw new IllegalStateException("Commit " + commit.getName() + " was analysed without sizes");
+		}
+		return sizeDelta;
+	}
+
+	/**
+	 * @return Statistics of all files of the commit added together.
+	 */
+	public FileEntity getTotals() {
+		FileEntity totals = new FileEntity(0, 0, 0, 0, 0, 0, 0, 0);
+		files.values().forEach(totals::add);
+		return totals;
+	}
+}
@@ -1,71 +1,51 @@
 package org.repodriller.scm;
 
-import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.diff.DiffEntry;
 import org.eclipse.jgit.diff.DiffFormatter;
 import org.eclipse.jgit.diff.Edit;
 import org.eclipse.jgit.diff.EditList;
 import org.eclipse.jgit.patch.FileHeader;
 import org.eclipse.jgit.revwalk.RevCommit;
-import org.eclipse.jgit.util.io.DisabledOutputStream;
 
 import java.util.*;
 
 public class CommitStabilityAnalyzer {
 
-    public static Double analyzeCommit(Git git, List<RevCommit> commitList, RevCommit commit, int index) throws Exception {
+    public static Double analyzeCommit(AnalysisContext context, CommitTimeline timeline, CommitAnalysis analysis, int position) throws Exception {
+        RevCommit commit = analysis.getCommit();
         double commitStability = 1D;
-        Date commitDate = commit.getCommitterIdent().getWhen();
         Calendar calendar = Calendar.getInstance();
-        calendar.setTime(commitDate);
+        calendar.setTime(commit.getCommitterIdent().getWhen());
         calendar.add(Calendar.MONTH, 1);
-        Date oneMonthLater = calendar.getTime();
+        long oneMonthLater = calendar.getTimeInMillis() / 1000;
 
-        RevCommit nextMonthCommit = findCommitInNextMonth(commitList, index, commitDate,  oneMonthLater);
+        int nextMonthPosition = timeline.firstBetween(commit.getCommitTime(), oneMonthLater, position);
 
-        if (nextMonthCommit != null) {
-            commitStability = calculateCommitStability(git, commit, nextMonthCommit);
+        if (nextMonthPosition >= 0) {
+            commitStability = calculateCommitStability(context, analysis, timeline.get(nextMonthPosition));
         }
         return commitStability;
     }
 
-    private static RevCommit findCommitInNextMonth(List<RevCommit> commitList, int index, Date currentCommitDate, Date oneMonthLater) {
-        RevCommit nextMonthCommits = null;
-        for (int i = 0; i < index; i++) {
-            RevCommit commit = commitList.get(i);
-            Date commitDate = commit.getCommitterIdent().getWhen();
-            if (commitDate.after(currentCommitDate) && commitDate.before(oneMonthLater)) {
-                nextMonthCommits = commit;
-            }
-        }
-        return nextMonthCommits;
-    }
-
-    private static double calculateCommitStability(Git git, RevCommit targetCommit, RevCommit lastMonthCommit) throws Exception {
-        RevCommit parent = targetCommit.getParentCount() > 0 ? targetCommit.getParent(0) : null;
+    private static double calculateCommitStability(AnalysisContext context, CommitAnalysis target, RevCommit lastMonthCommit) throws Exception {
+        RevCommit targetCommit = target.getCommit();
         List<Edit> editsAB = new ArrayList<>();
         List<Edit> editsBC = new ArrayList<>();
         long abSize;
 
-        try (DiffFormatter diffFormatter = new DiffFormatter(DisabledOutputStream.INSTANCE)) {
-            diffFormatter.setRepository(git.getRepository());
-
-            List<DiffEntry> diffs = diffFormatter.scan(parent, targetCommit);
-            for (DiffEntry diff : diffs) {
-                FileHeader fileHeader = diffFormatter.toFileHeader(diff);
-                EditList edits = fileHeader.toEditList();
-                editsAB.addAll(edits);
-            }
+        for (EditList edits : target.getEditLists()) {
+            editsAB.addAll(edits);
+        }
 
-            abSize = editsAB.stream().mapToLong(Edit::getLengthB).sum();
-            if (abSize == 0) return 0;
+        abSize = editsAB.stream().mapToLong(Edit::getLengthB).sum();
+        if (abSize == 0) return 0;
 
-            diffs = diffFormatter.scan(targetCommit, lastMonthCommit);
-            for (DiffEntry diff : diffs) {
-                FileHeader fileHeader = diffFormatter.toFileHeader(diff);
-                EditList edits = fileHeader.toEditList();
-                editsBC.addAll(edits);
-            }
+        DiffFormatter diffFormatter = context.getDiffFormatter();
+        List<DiffEntry> diffs = diffFormatter.scan(targetCommit, lastMonthCommit);
+        for (DiffEntry diff : diffs) {
+            FileHeader fileHeader = diffFormatter.toFileHeader(diff);
+            EditList edits = fileHeader.toEditList();
+            editsBC.addAll(edits);
         }
         double intersectionSize = getIntersectingEdits(editsAB, editsBC).stream().mapToDouble(it -> it[1] - it[0]).sum();
 
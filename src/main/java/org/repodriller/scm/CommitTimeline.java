@@ -0,0 +1,102 @@
+package org.repodriller.scm;
+
+import org.eclipse.jgit.revwalk.RevCommit;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Time index over a list of commits.
+ *
+ * Commit times are kept in a sorted primitive array next to the position of each commit in the original list,
+ * and a segment tree over those positions holds the smallest one of every range, so finding the first commit
+ * of a time window that is listed before a given position takes logarithmic time whatever the window holds.
+ */
+public class CommitTimeline {
+
+	private final List<RevCommit> commits;
+	/* Commit times in ascending order; equal times are ordered by descending position. */
+	private final int[] times;
+	private final int[] order;
+	/* Segment tree of minimum positions over order: node 1 is the root, node n has children 2n and 2n + 1. */
+	private final int[] minOrder;
+	private final int leaves;
+
+	public CommitTimeline(List<RevCommit> commits) {
+		this.commits = commits;
+		long[] keys = new long[commits.size()];
+		for (int i = 0; i < commits.size(); i++) {
+			RevCommit commit = commits.get(i);
+			/* Time in the high bits, inverted position in the low bits, so one sort gives both orders. */
+			keys[i] = ((long) commit.getCommitTime() << 32) | (Integer.MAX_VALUE - i);
+		}
+		Arrays.sort(keys);
+		this.times = new int[keys.length];
+		this.order = new int[keys.length];
+		for (int i = 0; i < keys.length; i++) {
+			times[i] = (int) (keys[i] >> 32);
+			order[i] = Integer.MAX_VALUE - (int) keys[i];
+		}
+		this.leaves = Integer.highestOneBit(Math.max(order.length, 1) * 2 - 1);
+		this.minOrder = new int[2 * leaves];
+		Arrays.fill(minOrder, Integer.MAX_VALUE);
+		System.arraycopy(order, 0, minOrder, leaves, order.length);
+		for (int node = leaves - 1; node >= 1; node--) {
+			minOrder[node] = Math.min(minOrder[2 * node], minOrder[2 * node + 1]);
+		}
+	}
+
+	public int size() {
+		return commits.size();
+	}
+
+	public RevCommit get(int position) {
+		return commits.get(position);
+	}
+
+	/**
+	 * Find the earliest commit listed before {@code position} whose commit time is strictly between
+	 * {@code after} and {@code before} (both in seconds).
+	 *
+	 * @return Position of that commit, or -1 if there is none.
+	 */
+	public int firstBetween(long after, long before, int position) {
+		int from = bound(after, true);
+		int to = bound(before, false);
+		int index = from < to ? firstBelow(1, 0, leaves, from, to, position) : -1;
+		return index >= 0 ? order[index] : -1;
+	}
+
+	/**
+	 * @return Index of the first entry of {@code [from, to)} whose position is below {@code position}, or -1;
+	 * only subtrees that overlap the range and hold such a position are descended into.
+	 */
+	private int firstBelow(int node, int nodeFrom, int nodeTo, int from, int to, int position) {
+		if (nodeTo <= from || to <= nodeFrom || minOrder[node] >= position) {
+			return -1;
+		}
+		if (nodeTo - nodeFrom == 1) {
+			return nodeFrom;
+		}
+		int mid = (nodeFrom + nodeTo) >>> 1;
+		int found = firstBelow(2 * node, nodeFrom, mid, from, to, position);
+		return found >= 0 ? found : firstBelow(2 * node + 1, mid, nodeTo, from, to, position);
+	}
+
+	/**
+	 * @return Index of the first time after {@code time}, or at or after it when not {@code strict}.
+	 */
+	private int bound(long time, boolean strict) {
+		int low = 0;
+		int high = times.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (times[mid] < time || (strict && times[mid] == time)) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+}
@@ -0,0 +1,183 @@
+package org.repodriller.scm;
+
+import org.repodriller.scm.metrics.IngestListener;
+import org.repodriller.util.BulkLoad;
+import org.repodriller.util.CommitRecord;
+import org.repodriller.util.CommitStatsStore;
+import org.repodriller.util.DataBaseUtil;
+import org.repodriller.util.FileEntity;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write stage of the ingest pipeline.
+ *
+ * Analysis workers hand finished commits to {@link #submit(CommitRecord)}; a single thread drains the bounded
+ * queue into one connection and commits one transaction per batch, so workers never contend for the SQLite lock.
+ */
+public class CommitWriter implements AutoCloseable {
+
+	public static final int DEFAULT_BATCH_SIZE = 500;
+	public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+
+	/* Marks the end of the stream; compared by identity. */
+	private static final CommitRecord END = new CommitRecord("", 0, "", "", 0, 0,
+			new FileEntity(0, 0, 0, 0, 0, 0, 0, 0), Collections.emptyList());
+
+	private final DataBaseUtil dataBaseUtil;
+	private final int projectId;
+	private final int batchSize;
+	private final BlockingQueue<CommitRecord> queue;
+	private final IngestListener listener;
+	private final CommitStatsStore statsStore;
+	private final BulkLoad bulkLoad;
+	/* Staged records for the stats store, without their paths; only handed over once the bulk load is finished. */
+	private final List<CommitRecord> staged = new ArrayList<>();
+	private final Thread thread;
+	private volatile Throwable failure;
+
+	public CommitWriter(DataBaseUtil dataBaseUtil, int projectId) {
+		this(dataBaseUtil, projectId, IngestListener.NONE);
+	}
+
+	public CommitWriter(DataBaseUtil dataBaseUtil, int projectId, IngestListener listener) {
+		this(dataBaseUtil, projectId, listener, DEFAULT_BATCH_SIZE, DEFAULT_QUEUE_CAPACITY);
+	}
+
+	public CommitWriter(DataBaseUtil dataBaseUtil, int projectId, IngestListener listener, int batchSize, int queueCapacity) {
+		this(dataBaseUtil, projectId, listener, null, null, batchSize, queueCapacity);
+	}
+
+	/**
+	 * @param statsStore also receives every batch once it is committed to the database, or null
+	 */
+	public CommitWriter(DataBaseUtil dataBaseUtil, int projectId, IngestListener listener, CommitStatsStore statsStore) {
+		this(dataBaseUtil, projectId, listener, statsStore, null, DEFAULT_BATCH_SIZE, DEFAULT_QUEUE_CAPACITY);
+	}
+
+	/**
+	 * @param bulkLoad stages the batches instead of inserting them, and is finished by {@link #close()}; or null.
+	 * The stats store then receives the batches from {@link #close()}, once the finished load is committed.
+	 */
+	public CommitWriter(DataBaseUtil dataBaseUtil, int projectId, IngestListener listener, CommitStatsStore statsStore,
+						BulkLoad bulkLoad) {
+		this(dataBaseUtil, projectId, listener, statsStore, bulkLoad, DEFAULT_BATCH_SIZE, DEFAULT_QUEUE_CAPACITY);
+	}
+
+	public CommitWriter(DataBaseUtil dataBaseUtil, int projectId, IngestListener listener, CommitStatsStore statsStore,
+						BulkLoad bulkLoad, int batchSize, int queueCapacity) {
+		this.dataBaseUtil = dataBaseUtil;
+		this.listener = listener;
+		this.statsStore = statsStore;
+		this.bulkLoad = bulkLoad;
+		this.projectId = projectId;
+		this.batchSize = batchSize;
+		this.queue = new ArrayBlockingQueue<>(queueCapacity);
+		this.thread = new Thread(this::drain, "commit-writer-" + projectId);
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+
+	/**
+	 * Queue a commit for writing, blocking while the queue is full.
+	 *
+	 * @throws IllegalStateException if the writer thread has already failed
+	 */
+	public void submit(CommitRecord record) throws InterruptedException {
+		while (!queue.offer(record, 100, TimeUnit.MILLISECONDS)) {
+			checkFailure();
+		}
+	}
+
+	/**
+	 * Flush the remaining records and stop the writer thread, then finish the bulk load if there is one.
+	 *
+	 * @throws IllegalStateException if any batch could not be written
+	 */
+	@Override
+	public void close() throws InterruptedException {
+		while (thread.isAlive() && !queue.offer(END, 100, TimeUnit.MILLISECONDS)) {
+			/* The writer is still busy with a full queue. */
+		}
+		thread.join();
+		if (bulkLoad != null) {
+			try {
+				if (failure == null) {
+					long start = System.nanoTime();
+					bulkLoad.finish();
+					listener.batchWritten(0, System.nanoTime() - start, 0);
+					if (statsStore != null) {
+						for (int i = 0; i < staged.size(); i += batchSize) {
+							statsStore.append(projectId, staged.subList(i, Math.min(i + batchSize, staged.size())));
+						}
+					}
+				}
+			} catch (RuntimeException e) {
+				failure = e;
+			} finally {
+				staged.clear();
+				bulkLoad.close();
+			}
+		}
+		checkFailure();
+	}
+
+	private void checkFailure() {
+		if (failure != null) {
+			throw new IllegalStateException("Commit writer for project " + projectId + " failed", failure);
+		}
+	}
+
+	private void drain() {
+		List<CommitRecord> batch = new ArrayList<>(batchSize);
+		boolean last = false;
+		while (!last) {
+			try {
+				CommitRecord record = queue.take();
+				if (record == END) {
+					last = true;
+				} else {
+					batch.add(record);
+					queue.drainTo(batch, batchSize - 1);
+					if (batch.get(batch.size() - 1) == END) {
+						batch.remove(batch.size() - 1);
+						last = true;
+					}
+				}
+				/* After a failure keep draining so that producers are not blocked, but drop the records. */
+				if (!batch.isEmpty() && failure == null) {
+					long start = System.nanoTime();
+					if (bulkLoad != null) {
+						bulkLoad.stage(batch);
+						if (statsStore != null) {
+							for (CommitRecord staging : batch) {
+								staged.add(new CommitRecord(staging.getHash(), staging.getDate(), staging.getAuthorName(),
+										staging.getAuthorEmail(), staging.getProjectSize(), staging.getStability(),
+										staging.getFileEntity(), Collections.emptyList()));
+							}
+						}
+					} else {
+						dataBaseUtil.insertCommitRecords(projectId, batch);
+						if (statsStore != null) {
+							statsStore.append(projectId, batch);
+						}
+					}
+					listener.batchWritten(batch.size(), System.nanoTime() - start, queue.size());
+				}
+			} catch (InterruptedException e) {
+				failure = e;
+				Thread.currentThread().interrupt();
+				return;
+			} catch (Throwable e) {
+				failure = e;
+			} finally {
+				batch.clear();
+			}
+		}
+	}
+}
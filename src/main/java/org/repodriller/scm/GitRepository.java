@@ -21,22 +21,29 @@ import org.apache.commons.io.FileUtils;
 import org.eclipse.jgit.api.*;
 import org.eclipse.jgit.api.ResetCommand.ResetType;
 import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.blame.BlameGenerator;
 import org.eclipse.jgit.blame.BlameResult;
 import org.eclipse.jgit.diff.DiffEntry;
 import org.eclipse.jgit.diff.DiffEntry.ChangeType;
 import org.eclipse.jgit.diff.DiffFormatter;
+import org.eclipse.jgit.diff.RawText;
 import org.eclipse.jgit.diff.RawTextComparator;
 import org.eclipse.jgit.lib.*;
 import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.revwalk.RevSort;
 import org.eclipse.jgit.revwalk.RevWalk;
 import org.eclipse.jgit.treewalk.*;
+import org.eclipse.jgit.treewalk.filter.AndTreeFilter;
+import org.eclipse.jgit.treewalk.filter.PathFilter;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
 import org.eclipse.jgit.util.io.DisabledOutputStream;
 import org.repodriller.RepoDrillerException;
 import org.repodriller.domain.*;
 import org.repodriller.filter.diff.DiffFilter;
 import org.repodriller.scm.entities.*;
 import org.repodriller.scm.exceptions.CheckoutException;
+import org.repodriller.scm.metrics.IngestListener;
+import org.repodriller.scm.metrics.IngestStage;
 import org.repodriller.util.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -44,13 +51,14 @@ import org.slf4j.LoggerFactory;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
-import java.util.stream.StreamSupport;
 
 /**
  * Everything you need to work with a Git-based source code repository.
@@ -65,6 +73,7 @@ public class GitRepository implements SCM {
 	private static final int MAX_SIZE_OF_A_DIFF = 100000;
 	private static final int DEFAULT_MAX_NUMBER_OF_FILES_IN_A_COMMIT = 5000;
 	private static final String BRANCH_MM = "mm"; /* TODO mm -> rd. */
+	public static final int DEFAULT_BLAME_RETENTION = 3;
 
 	/* Auto-determined. */
 	private String mainBranchName = null;
@@ -76,16 +85,23 @@ public class GitRepository implements SCM {
 	private static Logger log = LoggerFactory.getLogger(GitRepository.class);
 
 	private static final ConcurrentHashMap<String, DeveloperInfo> developersMap = new ConcurrentHashMap<>();
-	private static final ConcurrentHashMap<String, Long> filePathMap = new ConcurrentHashMap<>();
 
 	private String repoName = null;
 
 	/* User-specified. */
 	private String path = null;
 	private boolean firstParentOnly = false;
-	Map<ObjectId, Long> sizeCache = new ConcurrentHashMap<>();
+	private final ObjectSizeCache sizeCache = new ObjectSizeCache();
+	private IngestExecutors executors = IngestExecutors.defaults();
+	private final List<IngestListener> ingestListeners = new CopyOnWriteArrayList<>();
 	protected DataBaseUtil dataBaseUtil;
 	protected Integer projectId;
+	private CommitStatsStore commitStatsStore;
+	private boolean bulkLoad = true;
+	private int blameRetention = DEFAULT_BLAME_RETENTION;
+	private boolean retainTaggedBlames = true;
+	private BlameCache blameCache;
+	private OwnershipMode ownershipMode = OwnershipMode.ESTIMATE;
 
 	/**
 	 * Intended for sub-classes.
@@ -653,6 +669,11 @@ public class GitRepository implements SCM {
 
 	public List<BlamedLine> blame(String file) {
 		try (Git git = openRepository()) {
+			ObjectId head = git.getRepository().resolve(Constants.HEAD);
+			List<BlamedLine> cached = head != null ? cachedBlamedLines(git, head, file.replace("\\", "/"), true, true) : null;
+			if (cached != null) {
+				return cached;
+			}
 			BlameResult blameResult = git.blame().setFilePath(file.replace("\\", "/")).setFollowFileRenames(true).call();
 			if (blameResult != null) {
 				int rows = blameResult.getResultContents().size();
@@ -678,47 +699,105 @@ public class GitRepository implements SCM {
 		}
 	}
 
+	/**
+	 * Blames every file of the working tree in parallel on the CPU executor, largest and most changed files first.
+	 * Every task blames with a repository handle it borrows from {@link BlameWorkers} into a map of its own; the
+	 * maps are merged once all files are done.
+	 */
 	@Override
 	public BlameManager blameManager() {
 		try (Git git = openRepository()) {
-			Map<String, BlameFileInfo> fileMap = new HashMap<>();
-
-			for (RepositoryFile file : files()) {
-				String localFilePath = file.getFile().getPath().substring(path.length() + 1).replace("\\", "/");
-				BlameResult blameResult = git.blame().setFilePath(localFilePath).setFollowFileRenames(true).call();
-
-				if (blameResult != null) {
-					int rows = blameResult.getResultContents().size();
-					for (int i = 0; i < rows; i++) {
-						String author = blameResult.getSourceAuthor(i).getName();
-						String fileName = blameResult.getSourcePath(i);
-						RevCommit commit = blameResult.getSourceCommit(i);
-						BlameAuthorInfo blameAuthorInfo = new BlameAuthorInfo(author, Collections.singleton(commit), 1, blameResult.getResultContents().getString(i).getBytes().length);
-						fileMap.computeIfAbsent(blameResult.getSourcePath(i), k -> new BlameFileInfo(fileName)).add(blameAuthorInfo);
+			ObjectId head = git.getRepository().resolve(Constants.HEAD);
+			List<Future<Map<String, BlameFileInfo>>> results = new ArrayList<>();
+			try (BlameWorkers workers = new BlameWorkers(path);
+				 IngestExecutors.Lease executor = executors.lease(IngestExecutors.Stage.CPU)) {
+				for (String localFilePath : blameOrder(files())) {
+					results.add(executor.submit(() -> {
+						BlameWorkers.Worker worker = workers.borrow();
+						try {
+							return blameFile(worker, head, localFilePath);
+						} finally {
+							workers.release(worker);
+						}
+					}));
+				}
+				Map<String, BlameFileInfo> fileMap = new HashMap<>();
+				try {
+					for (Future<Map<String, BlameFileInfo>> result : results) {
+						result.get().forEach((fileName, info) -> fileMap.merge(fileName, info, BlameFileInfo::merge));
 					}
-				} else {
-					// TODO create notification
-					System.out.println("BlameResult not found. File: " + file + " localFilePath: " + localFilePath);
-					//	throw new RuntimeException("BlameResult not found. File: " + file + " localFilePath: " + localFilePath);
+				} catch (Exception e) {
+					/* Nothing still queued starts; closing the workers then waits for the blames already running. */
+					results.forEach(result -> result.cancel(false));
+					throw e;
 				}
+				return new BlameManager(fileMap, repoName);
 			}
-			return new BlameManager(fileMap, repoName);
-
 		} catch (Exception e) {
 			throw new RuntimeException(e);
 		}
 	}
 
+	/**
+	 * Working tree paths in the order to blame them: a blame costs more the larger the file and the more commits
+	 * touched it, and starting the expensive ones first keeps them from running alone at the end.
+	 */
+	private List<String> blameOrder(List<RepositoryFile> files) {
+		Map<String, Integer> churn = dataBaseUtil != null && projectId != null ? dataBaseUtil.getFileChurn(projectId) : Collections.emptyMap();
+		Map<String, Long> costs = new HashMap<>();
+		for (RepositoryFile file : files) {
+			String localFilePath = file.getFile().getPath().substring(path.length() + 1).replace("\\", "/");
+			costs.put(localFilePath, file.getFile().length() * (1 + churn.getOrDefault(localFilePath, 0)));
+		}
+		List<String> paths = new ArrayList<>(costs.keySet());
+		paths.sort(Comparator.<String>comparingLong(costs::get).reversed().thenComparing(Comparator.naturalOrder()));
+		return paths;
+	}
+
+	/**
+	 * @return The blame of one working tree file by the source path of its lines.
+	 */
+	private Map<String, BlameFileInfo> blameFile(BlameWorkers.Worker worker, ObjectId head, String localFilePath) throws Exception {
+		Git git = worker.getGit();
+		RevWalk rw = worker.getWalk();
+		Map<String, BlameFileInfo> fileMap = new HashMap<>();
+		BlameSnapshot snapshot = head != null ? cachedBlame(git, rw, rw.parseCommit(head), localFilePath, true, true) : null;
+		if (snapshot != null) {
+			for (int i = 0; i < snapshot.size(); i++) {
+				String fileName = snapshot.getSourcePath(i);
+				RevCommit commit = rw.parseCommit(ObjectId.fromString(snapshot.getCommit(i)));
+				BlameAuthorInfo blameAuthorInfo = new BlameAuthorInfo(snapshot.getAuthorName(i), Collections.singleton(commit), 1, snapshot.getLineBytes(i));
+				fileMap.computeIfAbsent(fileName, k -> new BlameFileInfo(fileName)).add(blameAuthorInfo);
+			}
+			return fileMap;
+		}
+		BlameResult blameResult = git.blame().setFilePath(localFilePath).setFollowFileRenames(true).call();
+
+		if (blameResult != null) {
+			int rows = blameResult.getResultContents().size();
+			for (int i = 0; i < rows; i++) {
+				String author = blameResult.getSourceAuthor(i).getName();
+				String fileName = blameResult.getSourcePath(i);
+				RevCommit commit = blameResult.getSourceCommit(i);
+				BlameAuthorInfo blameAuthorInfo = new BlameAuthorInfo(author, Collections.singleton(commit), 1, blameResult.getResultContents().getString(i).getBytes().length);
+				fileMap.computeIfAbsent(blameResult.getSourcePath(i), k -> new BlameFileInfo(fileName)).add(blameAuthorInfo);
+			}
+		} else {
+			// TODO create notification
+			System.out.println("BlameResult not found. localFilePath: " + localFilePath);
+			//	throw new RuntimeException("BlameResult not found. localFilePath: " + localFilePath);
+		}
+		return fileMap;
+	}
+
 	public List<BlamedLine> blame(String file, String commitToBeBlamed, boolean priorCommit) {
 		try (Git git = openRepository()) {
-			ObjectId gitCommitToBeBlamed;
-			if (priorCommit) {
-				Iterable<RevCommit> commits = git.log().add(git.getRepository().resolve(commitToBeBlamed)).call();
-				gitCommitToBeBlamed = commits.iterator().next().getParent(0).getId();
-			} else {
-				gitCommitToBeBlamed = git.getRepository().resolve(commitToBeBlamed);
-			}
+			ObjectId gitCommitToBeBlamed = blameStart(git, commitToBeBlamed, priorCommit);
 
+			List<BlamedLine> cached = cachedBlamedLines(git, gitCommitToBeBlamed, file.replace("\\", "/"), true, false);
+			if (cached != null) {
+				return cached;
+			}
 			BlameResult blameResult = git.blame().setFilePath(file.replace("\\", "/")).setStartCommit(gitCommitToBeBlamed).setFollowFileRenames(true).call();
 			if (blameResult != null) {
 				int rows = blameResult.getResultContents().size();
@@ -743,64 +822,193 @@ public class GitRepository implements SCM {
 		}
 	}
 
+	/**
+	 * Streaming counterpart of {@link #blame(String)}: the lines of {@code file} in the working tree go to
+	 * {@code listener} as regions of consecutive lines from the same commit. Regions come in history order rather
+	 * than line order, and the blame cache is not used, since there is no list of lines to fill it with. As with
+	 * {@code git blame}, lines that are only in the index or the working tree come in regions without a commit.
+	 *
+	 * @return The authors the regions refer to, and the text of the blamed file. No regions are streamed when the
+	 * file does not exist.
+	 */
+	public BlameRegions blame(String file, BlameRegionListener listener) {
+		try (Git git = openRepository();
+			 BlameGenerator generator = new BlameGenerator(git.getRepository(), file.replace("\\", "/"))) {
+			generator.setFollowFileRenames(true);
+			/* As in BlameCommand.call(): pushes HEAD, then the index entry and the working tree file, read through
+			 * the check-in filters, so that uncommitted lines are blamed on no commit. */
+			generator.prepareHead();
+			return BlameRegions.stream(generator, listener);
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Streaming counterpart of {@link #blame(String, String, boolean)}, see {@link #blame(String, BlameRegionListener)}.
+	 */
+	public BlameRegions blame(String file, String commitToBeBlamed, boolean priorCommit, BlameRegionListener listener) {
+		try (Git git = openRepository();
+			 BlameGenerator generator = new BlameGenerator(git.getRepository(), file.replace("\\", "/"))) {
+			generator.setFollowFileRenames(true);
+			generator.push(null, blameStart(git, commitToBeBlamed, priorCommit));
+			return BlameRegions.stream(generator, listener);
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * @return {@code commitToBeBlamed}, or its first parent when {@code priorCommit}.
+	 */
+	private ObjectId blameStart(Git git, String commitToBeBlamed, boolean priorCommit) throws IOException, GitAPIException {
+		if (priorCommit) {
+			Iterable<RevCommit> commits = git.log().add(git.getRepository().resolve(commitToBeBlamed)).call();
+			return commits.iterator().next().getParent(0).getId();
+		}
+		return git.getRepository().resolve(commitToBeBlamed);
+	}
+
 	public Map<String, DeveloperInfo> getDeveloperInfo() throws IOException, GitAPIException {
 		return getDeveloperInfo(null);
 	}
 
 	public void dbPrepared() {
 		developersMap.clear();
-		ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
 		List<Future<?>> futures = new ArrayList<>();
+		AtomicBoolean failed = new AtomicBoolean(false);
+		IngestListener listener = IngestListener.of(ingestListeners);
+		long started = System.nanoTime();
+		dataBaseUtil.setBusyRetryListener(listener::busyRetry);
 		try (Git git = openRepository()) {
+			Repository repo = git.getRepository();
+			ObjectId head = repo.resolve(Constants.HEAD);
+			String ref = ingestRef(repo);
+			List<RevCommit> commits = commitsToIngest(repo, ref, head);
+			listener.ingestStarted(repoName, commits.size());
+
+			CommitTimeline timeline = new CommitTimeline(commits);
+			ProjectSizeCalculator sizeCalculator = new ProjectSizeCalculator(sizeCache);
+			BulkLoad load = bulkLoad && !commits.isEmpty() && !dataBaseUtil.hasCommits(projectId)
+					? dataBaseUtil.beginBulkLoad(projectId) : null;
+			OwnershipEstimator estimator = ownershipMode == OwnershipMode.ESTIMATE && !commits.isEmpty()
+					? new OwnershipEstimator(dataBaseUtil, projectId, commits, head, sizeCache) : null;
+
+			try (AnalysisContext.Pool contexts = new AnalysisContext.Pool(repo);
+				 CommitWriter writer = new CommitWriter(dataBaseUtil, projectId, listener, getCommitStatsStore(), load);
+				 IngestExecutors.Lease executor = executors.lease(IngestExecutors.Stage.CPU)) {
+				/* Oldest first, so that most parents are already sized when their children are. */
+				for (int i = commits.size() - 1; i >= 0; i--) {
+					final RevCommit commit = commits.get(i);
+					final int position = i;
+					Future<?> future = executor.submit(() -> {
+						AnalysisContext context = contexts.borrow();
+						try {
+							long start = System.nanoTime();
+							CommitAnalysis analysis = CommitAnalysis.analyze(commit, context, sizeCache);
+							long analyzed = System.nanoTime();
+							listener.stageCompleted(IngestStage.DIFF, commit.getName(), analyzed - start);
+							if (estimator != null) {
+								estimator.offer(commit, analysis, context.getReader());
+							}
+							double commitStability = CommitStabilityAnalyzer.analyzeCommit(context, timeline, analysis, position);
+							long stabilized = System.nanoTime();
+							listener.stageCompleted(IngestStage.STABILITY, commit.getName(), stabilized - analyzed);
+							long commitSize = sizeCalculator.sizeOf(analysis, context);
+							listener.stageCompleted(IngestStage.SIZE, commit.getName(), System.nanoTime() - stabilized);
+							PersonIdent author = commit.getAuthorIdent();
+							writer.submit(new CommitRecord(commit.getName(), commit.getCommitTime(), author.getName(), author.getEmailAddress(),
+									commitSize, commitStability, analysis.getTotals(), analysis.getPaths()));
+						} catch (InterruptedException e) {
+							failed.set(true);
+							Thread.currentThread().interrupt();
+						} catch (Exception e) {
+							failed.set(true);
+							System.err.println("Error processing commit " + commit.getName() + ": " + e.getMessage());
+						} finally {
+							contexts.release(context);
+						}
+					});
+					futures.add(future);
+				}
 
-			List<RevCommit> commits = StreamSupport.stream(git.log().call().spliterator(), true)
-					.filter(commit -> !dataBaseUtil.isCommitExist(commit.getName()))
-					.toList();
+				for (Future<?> f : futures) {
+					f.get();
+				}
+			}
 
-			ConcurrentHashMap<String, Long> authorIdCache = new ConcurrentHashMap<>();
+			/* Only move the watermark past a range that was written completely, otherwise fall back to the hash set. */
+			if (failed.get()) {
+				dataBaseUtil.deleteProjectTip(projectId, ref);
+			} else {
+				dataBaseUtil.setProjectTip(projectId, ref, head.getName());
+			}
+			if (estimator != null) {
+				if (failed.get()) {
+					dataBaseUtil.clearOwnership(projectId);
+				} else {
+					estimator.store();
+				}
+			}
+			listener.ingestFinished(repoName, commits.size(), System.nanoTime() - started);
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		} finally {
+			dataBaseUtil.setBusyRetryListener(null);
+		}
+	}
 
-			for (int i = 0; i < commits.size(); i++) {
-				final RevCommit commit = commits.get(i);
+	/**
+	 * Name under which the ingest watermark of the current checkout is stored:
+	 * the full branch name, or HEAD when detached.
+	 */
+	private String ingestRef(Repository repo) throws IOException {
+		String fullBranch = repo.getFullBranch();
+		return fullBranch != null && fullBranch.startsWith(Constants.R_REFS) ? fullBranch : Constants.HEAD;
+	}
 
-				Future<?> future = executor.submit(() -> {
-					try {
-						DataBaseUtil dataBaseUtil1 = new DataBaseUtil(dataBaseUtil.getUrl());
-						List<org.repodriller.scm.entities.FileEntity> fileList = new ArrayList<>();
-						PersonIdent author = commit.getAuthorIdent();
-						Long authorId = authorIdCache.computeIfAbsent(author.getEmailAddress(), e -> {
-							Long id = dataBaseUtil.getAuthorId(projectId, e);
-							return id != null ? id : dataBaseUtil1.insertAuthor(projectId, author.getName(), e);
-						});
-						Map<String, org.repodriller.util.FileEntity> paths = GitRepositoryUtil.getCommitsFiles(commit, git);
-						paths.keySet().forEach(it -> filePathMap.computeIfAbsent(it, k -> {
-							Long id = dataBaseUtil.getFilePathId(projectId, k);
-							return id != null ? id : dataBaseUtil1.insertFilePath(projectId, k);
-						}));
-						double commitStability = CommitStabilityAnalyzer.analyzeCommit(git, commits, commit, commits.indexOf(commit));
-						long commitSize = GitRepositoryUtil.processCommitSize(commit, git);
-						org.repodriller.util.FileEntity fileMergedEntity = paths.values().stream().reduce(new org.repodriller.util.FileEntity(0, 0, 0, 0, 0, 0, 0, 0), (acc, fileEntity) -> {
-							acc.add(fileEntity);
-							return acc;
-						});
-						dataBaseUtil1.insertCommit(projectId, authorId, commit.getName(), commit.getCommitTime(), commitSize, commitStability, fileMergedEntity);
-						paths.keySet().forEach(it -> fileList.add(new org.repodriller.scm.entities.FileEntity(projectId, it, filePathMap.get(it), commit.getName(), commit.getCommitTime())));
-						dataBaseUtil1.insertFile(fileList);
-						dataBaseUtil1.closeConnection();
-					} catch (Exception e) {
-						System.err.println("Error processing commit " + commit.getName() + ": " + e.getMessage());
+	/**
+	 * Commits reachable from head that are not in the database yet, newest first.
+	 * Walks only tip..head when the ref has a watermark; otherwise walks everything and
+	 * skips the hashes already stored for this project.
+	 */
+	private List<RevCommit> commitsToIngest(Repository repo, String ref, ObjectId head) throws IOException {
+		List<RevCommit> commits = new ArrayList<>();
+		try (RevWalk walk = new RevWalk(repo)) {
+			walk.markStart(walk.parseCommit(head));
+			String tip = dataBaseUtil.getProjectTip(projectId, ref);
+			if (tip != null && ObjectId.isId(tip) && repo.getObjectDatabase().has(ObjectId.fromString(tip))) {
+				walk.markUninteresting(walk.parseCommit(ObjectId.fromString(tip)));
+				for (RevCommit commit : walk) {
+					commits.add(commit);
+				}
+			} else {
+				Set<String> known = dataBaseUtil.getCommitHashes(projectId);
+				for (RevCommit commit : walk) {
+					if (!known.contains(commit.getName())) {
+						commits.add(commit);
 					}
-				});
-				futures.add(future);
+				}
 			}
+		}
+		return commits;
+	}
 
-			for (Future<?> f : futures) {
-				f.get();
+	/**
+	 * @return Whether the author rollup, which covers every ingested commit of the project, covers exactly
+	 * {@code history}. It does not once another branch was ingested, or when HEAD moved past the ingest.
+	 */
+	private boolean rollupCovers(List<RevCommit> history) {
+		Set<String> ingested = dataBaseUtil.getCommitHashes(projectId);
+		if (ingested.size() != history.size()) {
+			return false;
+		}
+		for (RevCommit commit : history) {
+			if (!ingested.contains(commit.getName())) {
+				return false;
 			}
-		} catch (Exception e) {
-			throw new RuntimeException(e);
-		} finally {
-			executor.shutdown();
 		}
+		return true;
 	}
 
 	public Map<String, DeveloperInfo> getDeveloperInfo(String nodePath) throws IOException, GitAPIException {
@@ -809,69 +1017,283 @@ public class GitRepository implements SCM {
 			nodePath = Objects.equals(nodePath, path) ? null : nodePath;
 			String localPath = nodePath != null && nodePath.startsWith(path) ? nodePath.substring(path.length() + 1).replace("\\", "/") : nodePath;
 			Iterable<RevCommit> commits = localPath != null ? git.log().addPath(localPath).call() : git.log().call();
-			ExecutorService executorService = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
 			List<Future<?>> futures = new ArrayList<>();
+			IngestListener listener = IngestListener.of(ingestListeners);
+			dataBaseUtil.setBusyRetryListener(listener::busyRetry);
+
+			List<RevCommit> history = new ArrayList<>();
+			commits.forEach(history::add);
+			if (localPath == null && rollupCovers(history)) {
+				/* The whole project: counters come from the rollup, the log only supplies the commits. */
+				for (AuthorStats stats : dataBaseUtil.getAuthorStats(projectId)) {
+					developersMap.put(stats.getAuthorEmail(), new DeveloperInfo(stats));
+				}
+				for (RevCommit commit : history) {
+					PersonIdent author = commit.getAuthorIdent();
+					developersMap.computeIfAbsent(author.getEmailAddress(), k -> new DeveloperInfo(author.getName(), k)).addCommit(commit);
+				}
+			} else {
+				try (IngestExecutors.Lease executorService = executors.lease(IngestExecutors.Stage.IO)) {
+					for (RevCommit commit : history) {
+						// Submitting tasks to the thread pool
+						Future<?> future = executorService.submit(() -> {
+							CommitEntity commitEntity = dataBaseUtil.getCommit(projectId, commit.getName());
+							DeveloperInfo dev = developersMap.computeIfAbsent(commitEntity.getAuthorEmail(), k -> new DeveloperInfo(commitEntity, commit));
+							dev.updateByCommit(commitEntity, commit);
+						});
+						futures.add(future);
+					}
 
-			for (RevCommit commit : commits) {
-				// Submitting tasks to the thread pool
-				Future<?> future = executorService.submit(() -> {
-					DataBaseUtil dataBaseUtil1 = new DataBaseUtil(dataBaseUtil.getUrl());
-					CommitEntity commitEntity = dataBaseUtil1.getCommit(projectId, commit.getName());
-					DeveloperInfo dev = developersMap.computeIfAbsent(commitEntity.getAuthorEmail(), k -> new DeveloperInfo(commitEntity, commit));
-					dev.updateByCommit(commitEntity, commit);
-					dataBaseUtil1.closeConnection();
-				});
-				futures.add(future);
-			}
-
-			for (Future<?> future : futures) {
-				try {
-					future.get();  // Catch exceptions if they occur during task execution
-				} catch (InterruptedException | ExecutionException e) {
-					e.printStackTrace();  // Logging or other error handling
+					for (Future<?> future : futures) {
+						try {
+							future.get();  // Catch exceptions if they occur during task execution
+						} catch (InterruptedException | ExecutionException e) {
+							e.printStackTrace();  // Logging or other error handling
+						}
+					}
 				}
 			}
 
 			futures.clear();
 
 			ObjectId head = git.getRepository().resolve(Constants.HEAD);
+			if (ownershipMode == OwnershipMode.ESTIMATE && head.getName().equals(dataBaseUtil.getOwnershipHead(projectId))) {
+				/* The ingest already attributed the lines of this head. */
+				dataBaseUtil.developerUpdateByOwnership(projectId, localPath, developersMap);
+				return developersMap;
+			}
+			String previousHead = previousBlameHead(git.getRepository(), head);
+			/* Rows left behind by an interrupted blame of this head are blamed again. */
+			dataBaseUtil.deleteIncompleteBlameFiles(projectId, head.getName());
+			IdDictionary filePathIds = dataBaseUtil.filePathIds(projectId);
 			String finalNodePath = nodePath;
-			Stream<String> fileStream = files().stream().parallel().filter(it -> ((finalNodePath == null || it.getFile().getPath().startsWith(finalNodePath)) && !it.getFile().getPath().endsWith(".DS_Store")))
-					.map(it -> it.getFile().getPath().substring(path.length() + 1).replace("\\", "/")).filter(filePathMap.keySet()::contains);
-			Stream<Pair<String, String>> fileHashes = fileStream.map(it -> new Pair<>(it, head.getName())).filter(it -> dataBaseUtil.getBlameFileId(projectId, filePathMap.get(it.getFirst()), it.getSecond()) == null);
-			Stream<Pair<String, Integer>> fileAndBlameHashes = fileHashes.map(it -> new Pair<>(it.getFirst(), dataBaseUtil.insertBlameFile(projectId, filePathMap.get(it.getFirst()), it.getSecond())));
-			Map<String, String> devs = dataBaseUtil.getDevelopersByProjectId(projectId);
-
-			for (Pair<String, Integer> filePair : fileAndBlameHashes.collect(Collectors.toSet())) {
-				Future<?> future = executorService.submit(() -> {
-					DataBaseUtil dataBaseUtil1 = new DataBaseUtil(dataBaseUtil.getUrl());
-                    BlameResult blameResult;
-                    try {
-                        blameResult = git.blame().setFilePath(filePair.getFirst()).setStartCommit(head).call();
-                    } catch (GitAPIException e) {
-                        throw new RuntimeException(e);
-                    }
-                    if (blameResult != null) {
-						GitRepositoryUtil.updateFileOwnerBasedOnBlame(blameResult, devs, dataBaseUtil1, projectId, filePair.getSecond(), head.getName());
-						dataBaseUtil1.updateBlameFileSize(filePair.getSecond());
-						dataBaseUtil1.closeConnection();
-					}
-                });
-				futures.add(future);
+			List<String> unblamed = files().stream().parallel().filter(it -> ((finalNodePath == null || it.getFile().getPath().startsWith(finalNodePath)) && !it.getFile().getPath().endsWith(".DS_Store")))
+					.map(it -> it.getFile().getPath().substring(path.length() + 1).replace("\\", "/")).filter(filePathIds::contains)
+					.filter(it -> dataBaseUtil.getBlameFileId(projectId, filePathIds.get(it), head.getName()) == null)
+					.collect(Collectors.toList());
+			if (previousHead != null) {
+				/* Files that did not change since the previous head share its blame instead of being blamed again. */
+				Set<String> changed = changedPaths(git.getRepository(), ObjectId.fromString(previousHead), head);
+				List<Long> unchanged = unblamed.stream().filter(it -> !changed.contains(it)).map(filePathIds::get).collect(Collectors.toList());
+				Set<Long> carried = dataBaseUtil.carryBlameFiles(projectId, previousHead, head.getName(), unchanged);
+				unblamed.removeIf(it -> carried.contains(filePathIds.get(it)));
 			}
-			for (Future<?> future : futures) {
-				try {
-					future.get();  // Catch exceptions if they occur during task execution
-				} catch (InterruptedException | ExecutionException e) {
-					e.printStackTrace();  // Logging or other error handling
+			Stream<Pair<String, Integer>> fileAndBlameHashes = unblamed.stream().map(it -> new Pair<>(it, dataBaseUtil.insertBlameFile(projectId, filePathIds.get(it), head.getName())));
+			Map<String, Long> devs = dataBaseUtil.getDevelopersByProjectId(projectId);
+
+			boolean complete = true;
+			try (IngestExecutors.Lease executorService = executors.lease(IngestExecutors.Stage.CPU)) {
+				for (Pair<String, Integer> filePair : fileAndBlameHashes.collect(Collectors.toSet())) {
+					Future<?> future = executorService.submit(() -> {
+						BlameSnapshot snapshot;
+						long start = System.nanoTime();
+						try (RevWalk rw = new RevWalk(git.getRepository())) {
+							snapshot = cachedBlame(git, rw, rw.parseCommit(head), filePair.getFirst(), false, false);
+							listener.fileBlamed(filePair.getFirst(), System.nanoTime() - start);
+							if (snapshot == null) {
+								/* Not a file at the head, such as an untracked one: there is nothing to keep. */
+								dataBaseUtil.deleteBlameFile(filePair.getSecond());
+								return;
+							}
+							GitRepositoryUtil.updateFileOwnerBasedOnBlame(snapshot, devs, dataBaseUtil, projectId, filePair.getSecond());
+							dataBaseUtil.updateBlameFileSize(filePair.getSecond());
+						} catch (Exception e) {
+							dataBaseUtil.deleteBlameFile(filePair.getSecond());
+							throw new RuntimeException(e);
+						}
+					});
+					futures.add(future);
 				}
+				for (Future<?> future : futures) {
+					try {
+						future.get();  // Catch exceptions if they occur during task execution
+					} catch (InterruptedException | ExecutionException e) {
+						complete = false;
+						e.printStackTrace();  // Logging or other error handling
+					}
+				}
+			}
+			dataBaseUtil.developerUpdateByBlameInfo(projectId, head.getName(), developersMap);
+			if (complete) {
+				/* Only a head whose every file is blamed becomes one that later heads carry their blames from. */
+				dataBaseUtil.touchBlameHead(projectId, head.getName());
+				dataBaseUtil.pruneBlameHeadsAsync(projectId, blameRetention,
+						retainTaggedBlames ? taggedCommits(git.getRepository()) : Collections.emptySet());
 			}
-			dataBaseUtil.developerUpdateByBlameInfo(projectId, developersMap);
-			executorService.shutdown();
+		} finally {
+			dataBaseUtil.setBusyRetryListener(null);
 		}
         return developersMap;
 	}
 
+	/**
+	 * Blame of {@code path} as of {@code start} through the {@link BlameCache}, keyed by the last commit that touched
+	 * the path: blaming from there gives the same result as blaming from {@code start}.
+	 *
+	 * @param workingTree Whether the blame stands for the working tree, as a blame without a start commit does;
+	 * the cache is then only used if the file in the working tree has the same content as at {@code start}.
+	 * @return The blame, or null if the path is not a file at {@code start} or the working tree differs.
+	 */
+	private BlameSnapshot cachedBlame(Git git, RevWalk rw, RevCommit start, String path, boolean followRenames, boolean workingTree) throws Exception {
+		Repository repo = git.getRepository();
+		ObjectId blob = blobAt(rw.getObjectReader(), start, path);
+		if (blob == null || (workingTree && !repo.isBare() && !matchesWorkingTree(repo, path, blob))) {
+			return null;
+		}
+		RevCommit touched = lastTouchingCommit(repo, rw, start, blob, path);
+		if (touched == null) {
+			return null;
+		}
+		return getBlameCache().get(projectId, path, touched.getName(), followRenames, () -> {
+			BlameResult blameResult = git.blame().setFilePath(path).setStartCommit(touched).setFollowFileRenames(followRenames).call();
+			return blameResult != null ? BlameSnapshot.of(blameResult) : null;
+		});
+	}
+
+	/**
+	 * {@link #cachedBlame} as lines, with their text read from the blob.
+	 */
+	private List<BlamedLine> cachedBlamedLines(Git git, ObjectId start, String path, boolean followRenames, boolean workingTree) throws Exception {
+		try (RevWalk rw = new RevWalk(git.getRepository())) {
+			RevCommit startCommit = rw.parseCommit(start);
+			BlameSnapshot snapshot = cachedBlame(git, rw, startCommit, path, followRenames, workingTree);
+			if (snapshot == null) {
+				return null;
+			}
+			ObjectId blob = blobAt(rw.getObjectReader(), startCommit, path);
+			RawText text = new RawText(rw.getObjectReader().open(blob, Constants.OBJ_BLOB).getCachedBytes(Integer.MAX_VALUE));
+			if (text.size() != snapshot.size()) {
+				return null;
+			}
+			List<BlamedLine> result = new ArrayList<>(snapshot.size());
+			for (int i = 0; i < snapshot.size(); i++) {
+				result.add(new BlamedLine(i, text.getString(i), snapshot.getAuthorName(i), snapshot.getCommitterName(i), snapshot.getCommit(i)));
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * The last commit in the history of {@code start} that touched {@code path}, as {@code git log -1 -- path}.
+	 * When {@code start} is the ingested tip of the checkout, the Files table suggests it: its most recent commit
+	 * for the path is taken once {@link #unchangedSince} confirms it, since author dates can be skewed and a change
+	 * can be reverted. Otherwise, and for any other start, the history is walked with a path filter.
+	 */
+	private RevCommit lastTouchingCommit(Repository repo, RevWalk rw, RevCommit start, ObjectId blob, String path) throws IOException {
+		if (dataBaseUtil != null && projectId != null && start.getName().equals(dataBaseUtil.getProjectTip(projectId, ingestRef(repo)))) {
+			IdDictionary filePathIds = dataBaseUtil.filePathIds(projectId);
+			String hash = filePathIds.contains(path) ? dataBaseUtil.getLastFileHash(projectId, filePathIds.get(path)) : null;
+			if (hash != null && ObjectId.isId(hash) && repo.getObjectDatabase().has(ObjectId.fromString(hash))) {
+				RevCommit candidate = rw.parseCommit(ObjectId.fromString(hash));
+				boolean found = blob.equals(blobAt(rw.getObjectReader(), candidate, path)) && unchangedSince(rw, start, candidate, blob, path);
+				rw.reset();
+				if (found) {
+					return candidate;
+				}
+			}
+		}
+		/* A tree filter rewrites the parents of the commits it walks, so it gets a walk of its own and the result
+		 * is parsed again on rw, whose commits keep their real parents. */
+		try (RevWalk pathWalk = new RevWalk(rw.getObjectReader())) {
+			pathWalk.setTreeFilter(AndTreeFilter.create(PathFilter.create(path), TreeFilter.ANY_DIFF));
+			pathWalk.markStart(pathWalk.parseCommit(start));
+			RevCommit touched = pathWalk.next();
+			return touched != null ? rw.parseCommit(touched) : null;
+		}
+	}
+
+	/**
+	 * Whether {@code candidate} is an ancestor of {@code start} and no commit between them touches {@code path}:
+	 * every commit reachable from {@code start} but not from {@code candidate} has {@code blob} at the path, and
+	 * only has parents among those commits or {@code candidate} itself. A branch forked before {@code candidate}
+	 * that was merged in could have touched the path, so it fails the check as well. Leaves {@code rw} to be reset.
+	 */
+	private static boolean unchangedSince(RevWalk rw, RevCommit start, RevCommit candidate, ObjectId blob, String path) throws IOException {
+		if (start.equals(candidate)) {
+			return true;
+		}
+		rw.markStart(start);
+		rw.markUninteresting(candidate);
+		Set<RevCommit> walked = new HashSet<>();
+		for (RevCommit commit : rw) {
+			if (!blob.equals(blobAt(rw.getObjectReader(), commit, path))) {
+				return false;
+			}
+			walked.add(commit);
+		}
+		boolean reached = false;
+		for (RevCommit commit : walked) {
+			for (RevCommit parent : commit.getParents()) {
+				if (parent.equals(candidate)) {
+					reached = true;
+				} else if (!walked.contains(parent)) {
+					return false;
+				}
+			}
+		}
+		return reached;
+	}
+
+	/**
+	 * @return The blob of {@code path} in {@code commit}, or null if it is not a file there.
+	 */
+	private static ObjectId blobAt(ObjectReader reader, RevCommit commit, String path) throws IOException {
+		try (TreeWalk tw = TreeWalk.forPath(reader, path, commit.getTree())) {
+			return tw != null && tw.getFileMode(0).getObjectType() == Constants.OBJ_BLOB ? tw.getObjectId(0) : null;
+		}
+	}
+
+	private static boolean matchesWorkingTree(Repository repo, String path, ObjectId blob) throws IOException {
+		File file = new File(repo.getWorkTree(), path);
+		if (!file.isFile()) {
+			return false;
+		}
+		try (ObjectInserter.Formatter formatter = new ObjectInserter.Formatter()) {
+			return blob.equals(formatter.idFor(Constants.OBJ_BLOB, Files.readAllBytes(file.toPath())));
+		}
+	}
+
+	/**
+	 * @return The most recently blamed head other than {@code head} that is still in the repository, or null.
+	 */
+	private String previousBlameHead(Repository repo, ObjectId head) throws IOException {
+		for (String blamed : dataBaseUtil.getBlameHeads(projectId)) {
+			if (!blamed.equals(head.getName()) && ObjectId.isId(blamed) && repo.getObjectDatabase().has(ObjectId.fromString(blamed))) {
+				return blamed;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return Paths that were added, deleted or modified between the trees of two commits.
+	 */
+	private Set<String> changedPaths(Repository repo, ObjectId from, ObjectId to) throws IOException {
+		Set<String> changed = new HashSet<>();
+		try (RevWalk rw = new RevWalk(repo); TreeWalk tw = new TreeWalk(repo)) {
+			tw.addTree(rw.parseCommit(from).getTree());
+			tw.addTree(rw.parseCommit(to).getTree());
+			tw.setRecursive(true);
+			tw.setFilter(TreeFilter.ANY_DIFF);
+			while (tw.next()) {
+				changed.add(tw.getPathString());
+			}
+		}
+		return changed;
+	}
+
+	private Set<String> taggedCommits(Repository repo) throws IOException {
+		Set<String> commits = new HashSet<>();
+		for (Ref tag : repo.getRefDatabase().getRefsByPrefix(Constants.R_TAGS)) {
+			Ref peeled = repo.getRefDatabase().peel(tag);
+			ObjectId id = peeled.getPeeledObjectId() != null ? peeled.getPeeledObjectId() : peeled.getObjectId();
+			if (id != null) {
+				commits.add(id.getName());
+			}
+		}
+		return commits;
+	}
+
 	private void processDeveloperInfo(RevCommit commit, Git git, ConcurrentHashMap<String, DeveloperInfo> developers) {
 		try {
 			String email = commit.getAuthorIdent().getEmailAddress();
@@ -881,6 +1303,123 @@ public class GitRepository implements SCM {
 		} catch (IOException ignored) {}
 	}
 
+	public IngestExecutors getExecutors() {
+		return executors;
+	}
+
+	/**
+	 * Executors for the ingest stages of {@link #dbPrepared()} and {@link #getDeveloperInfo(String)}.
+	 * Use {@link IngestExecutors#shared} to let several repositories share one thread budget.
+	 */
+	public void setExecutors(IngestExecutors executors) {
+		this.executors = Objects.requireNonNull(executors);
+	}
+
+	/**
+	 * Register a listener for timings and counters of {@link #dbPrepared()} and {@link #getDeveloperInfo(String)},
+	 * e.g. an {@link org.repodriller.scm.metrics.IngestMetrics} or a
+	 * {@link org.repodriller.scm.metrics.JfrIngestListener}.
+	 */
+	@Override
+	public void addIngestListener(IngestListener listener) {
+		ingestListeners.add(Objects.requireNonNull(listener));
+	}
+
+	@Override
+	public void removeIngestListener(IngestListener listener) {
+		ingestListeners.remove(listener);
+	}
+
+	/**
+	 * Numeric columns of every ingested commit, e.g. for dashboards that aggregate sizes or stability over time.
+	 */
+	public CommitColumns getCommitStats() {
+		return getCommitStatsStore().columns(projectId);
+	}
+
+	public CommitStatsStore getCommitStatsStore() {
+		if (commitStatsStore == null) {
+			commitStatsStore = new SqliteCommitStatsStore(dataBaseUtil);
+		}
+		return commitStatsStore;
+	}
+
+	/**
+	 * Where {@link #dbPrepared()} also stores commit columns, and where {@link #getCommitStats()} reads them.
+	 * A {@link MappedCommitStatsStore} only holds commits ingested after it was set.
+	 */
+	public void setCommitStatsStore(CommitStatsStore commitStatsStore) {
+		this.commitStatsStore = Objects.requireNonNull(commitStatsStore);
+	}
+
+	public BlameCache getBlameCache() {
+		if (blameCache == null) {
+			blameCache = new BlameCache(dataBaseUtil);
+		}
+		return blameCache;
+	}
+
+	/**
+	 * Where {@link #blame(String)}, {@link #blameManager()} and {@link #getDeveloperInfo(String)} look up blames
+	 * before computing them. By default a memory LRU in front of the project database.
+	 */
+	public void setBlameCache(BlameCache blameCache) {
+		this.blameCache = Objects.requireNonNull(blameCache);
+	}
+
+	public OwnershipMode getOwnershipMode() {
+		return ownershipMode;
+	}
+
+	/**
+	 * How {@link #getDeveloperInfo(String)} attributes lines to developers. With {@link OwnershipMode#ESTIMATE},
+	 * the default, {@link #dbPrepared()} keeps an estimate up to date and blame only runs when the estimate is not
+	 * for the current head; {@link OwnershipMode#BLAME} always blames.
+	 */
+	public void setOwnershipMode(OwnershipMode ownershipMode) {
+		this.ownershipMode = Objects.requireNonNull(ownershipMode);
+	}
+
+	public boolean isBulkLoad() {
+		return bulkLoad;
+	}
+
+	/**
+	 * Whether {@link #dbPrepared()} loads a project without commits through a {@link BulkLoad}, which is faster
+	 * but only makes the commits visible once all of them are written. On by default.
+	 */
+	public void setBulkLoad(boolean bulkLoad) {
+		this.bulkLoad = bulkLoad;
+	}
+
+	public int getBlameRetention() {
+		return blameRetention;
+	}
+
+	/**
+	 * How many of the most recently blamed heads keep their blame snapshots once {@link #getDeveloperInfo(String)}
+	 * has stored a new one; older snapshots are pruned in the background.
+	 */
+	public void setBlameRetention(int blameRetention) {
+		if (blameRetention < 1) throw new IllegalArgumentException("blameRetention must be positive: " + blameRetention);
+		this.blameRetention = blameRetention;
+	}
+
+	public boolean isRetainTaggedBlames() {
+		return retainTaggedBlames;
+	}
+
+	/**
+	 * Whether blame snapshots of heads that a tag points at are kept regardless of {@link #setBlameRetention(int)}.
+	 */
+	public void setRetainTaggedBlames(boolean retainTaggedBlames) {
+		this.retainTaggedBlames = retainTaggedBlames;
+	}
+
+	public ObjectSizeCache getSizeCache() {
+		return sizeCache;
+	}
+
 	public Integer getMaxNumberFilesInACommit() {
 		return maxNumberFilesInACommit;
 	}
@@ -2,118 +2,65 @@ package org.repodriller.scm;
 
 import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.blame.BlameResult;
-import org.eclipse.jgit.diff.DiffEntry;
-import org.eclipse.jgit.diff.DiffFormatter;
-import org.eclipse.jgit.diff.EditList;
-import org.eclipse.jgit.diff.RawTextComparator;
 import org.eclipse.jgit.lib.*;
 import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.treewalk.TreeWalk;
-import org.eclipse.jgit.util.io.DisabledOutputStream;
 import org.repodriller.scm.entities.DeveloperInfo;
 import org.repodriller.util.BlameEntity;
+import org.repodriller.util.BlameLines;
 import org.repodriller.util.DataBaseUtil;
 import org.repodriller.util.FileEntity;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
 
 
 public class GitRepositoryUtil {
 
-    private static final Map<String, Long> fileSizeCache = new ConcurrentHashMap<>();
+    /* Sizes for the entry points that are not given a cache. Ids name the same content in every repository,
+     * so one bounded cache serves all of them. */
+    private static final ObjectSizeCache sharedSizeCache = new ObjectSizeCache();
 
     public static void analyzeCommit(RevCommit commit, Git git, DeveloperInfo dev) throws IOException {
-        try (DiffFormatter diffFormatter = new DiffFormatter(DisabledOutputStream.INSTANCE)) {
-            RevCommit parent = (commit.getParentCount() > 0) ? commit.getParent(0) : null;
-            diffFormatter.setRepository(git.getRepository());
-            diffFormatter.setDiffComparator(RawTextComparator.DEFAULT);
-            diffFormatter.setDetectRenames(true);
-            List<DiffEntry> diffs = diffFormatter.scan(parent, commit);
-            for (DiffEntry diff : diffs) {
-                dev.processDiff(diff, git.getRepository());
-            }
+        try (AnalysisContext context = new AnalysisContext(git.getRepository())) {
+            analyzeCommit(commit, context, dev);
+        }
+    }
+
+    public static void analyzeCommit(RevCommit commit, AnalysisContext context, DeveloperInfo dev) throws IOException {
+        CommitAnalysis analysis = CommitAnalysis.analyze(commit, context);
+        for (int i = 0; i < analysis.getDiffs().size(); i++) {
+            dev.processDiff(analysis.getDiffs().get(i), analysis.getEditLists().get(i), context.getDiffFormatter(), context.getOut());
         }
     }
 
     public static Map<String, FileEntity> getCommitsFiles(RevCommit commit, Git git) throws IOException {
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
-        try (DiffFormatter diffFormatter = new DiffFormatter(out)) {
-            RevCommit parent = (commit.getParentCount() > 0) ? commit.getParent(0) : null;
-            diffFormatter.setRepository(git.getRepository());
-            diffFormatter.setDiffComparator(RawTextComparator.DEFAULT);
-            diffFormatter.setDetectRenames(true);
-            List<DiffEntry> diffs = diffFormatter.scan(parent, commit);
-            Map<String, FileEntity> paths = new HashMap<>();
+        try (AnalysisContext context = new AnalysisContext(git.getRepository())) {
+            return getCommitsFiles(commit, context);
+        }
+    }
 
-            for (DiffEntry diff : diffs) {
-                int fileAdded = 0, fileDeleted = 0,fileModified = 0, linesAdded = 0, linesDeleted = 0, linesModified = 0, changes  = 0;
-                switch (diff.getChangeType()) {
-                    case ADD -> fileAdded++;
-                    case DELETE -> fileDeleted++;
-                    case MODIFY -> fileModified++;
-                }
+    public static Map<String, FileEntity> getCommitsFiles(RevCommit commit, AnalysisContext context) throws IOException {
+        return CommitAnalysis.analyze(commit, context).getFiles();
+    }
 
-                EditList editList = diffFormatter.toFileHeader(diff).toEditList();
-                for (var edit : editList) {
-                    switch (edit.getType()) {
-                        case INSERT -> {
-                                linesAdded += edit.getLengthB();
-                                changes += edit.getLengthB();
-                        }
-                        case DELETE -> {
-                            linesDeleted += edit.getLengthA();
-                            changes += edit.getLengthA();
-                        }
-                        case REPLACE -> {
-                                //TODO getLengthA (removed)  getLengthB (added) - maybe max(A,B) or just B
-                            linesModified += edit.getLengthA() + edit.getLengthB();
-                            changes += edit.getLengthA() + edit.getLengthB();
-                        }
-                    }
-                }
-                paths.putIfAbsent(diff.getNewPath(), new FileEntity(0, 0, 0, 0, 0, 0, 0, 0));
-                paths.get(diff.getNewPath()).plus(fileAdded, fileDeleted, fileModified, linesAdded, linesDeleted, linesModified, changes, out.size());
-            }
-            return paths;
+    public static long processCommitSize(RevCommit commit, Git git) {
+        try (AnalysisContext context = new AnalysisContext(git.getRepository())) {
+            return processCommitSize(commit, context);
         }
     }
 
-    public static long processCommitSize(RevCommit commit, Git git) {
-        long projectSize = 0;
-        ObjectReader reader = null;
-        try {
-            reader = git.getRepository().newObjectReader();
-            // TreeWalk для обхода файлов в дереве коммита
-            try (TreeWalk treeWalk = new TreeWalk(git.getRepository())) {
-                treeWalk.addTree(commit.getTree());
-                treeWalk.setRecursive(true);  // Рекурсивный обход всех файлов
+    public static long processCommitSize(RevCommit commit, AnalysisContext context) {
+        return processCommitSize(commit, context, sharedSizeCache);
+    }
 
-                while (treeWalk.next()) {
-                    ObjectId objectId = treeWalk.getObjectId(0);
-                    String objectHash = objectId.getName();
-                    Long size = fileSizeCache.getOrDefault(objectHash, null);
-                    if (size == null) {
-                        // Открываем объект и проверяем его тип
-                        ObjectLoader loader = reader.open(objectId);
-                        if (loader.getType() == Constants.OBJ_BLOB) {
-                            // Если это blob (файл), добавляем его размер
-                            projectSize += loader.getSize();
-                            fileSizeCache.put(objectHash, loader.getSize());
-                        }
-                    } else projectSize += size;
-                }
-            }
-        } catch (Exception e) {
+    public static long processCommitSize(RevCommit commit, AnalysisContext context, ObjectSizeCache sizeCache) {
+        try {
+            return new ProjectSizeCalculator(sizeCache).sizeOf(commit, context);
+        } catch (IOException e) {
             e.printStackTrace();
-        } finally {
-            if (reader != null) {
-                reader.close();
-            }
+            return 0;
         }
-        return projectSize;
     }
 
     public static void updateFileOwnerBasedOnBlame(BlameResult blameResult, Map<String, DeveloperInfo> developers) {
@@ -133,19 +80,19 @@ public class GitRepositoryUtil {
         } else System.out.println("Blame for file " + blameResult.getResultPath() + " not found");
     }
 
-    public static void updateFileOwnerBasedOnBlame(BlameResult blameResult, Map<String, String> devs, DataBaseUtil dataBaseUtil, Integer projectId, Integer blameFileId, String headHash) {
+    public static void updateFileOwnerBasedOnBlame(BlameResult blameResult, Map<String, Long> devs, DataBaseUtil dataBaseUtil, Integer projectId, Integer blameFileId) {
+        updateFileOwnerBasedOnBlame(blameResult != null ? BlameSnapshot.of(blameResult) : null, devs, dataBaseUtil, projectId, blameFileId);
+    }
+
+    public static void updateFileOwnerBasedOnBlame(BlameSnapshot snapshot, Map<String, Long> devs, DataBaseUtil dataBaseUtil, Integer projectId, Integer blameFileId) {
         Map<String, BlameEntity> blameEntityMap = new HashMap<>();
-        if (blameResult != null) {
-            for (int i = 0; i < blameResult.getResultContents().size(); i++) {
-                PersonIdent author = blameResult.getSourceAuthor(i);
-                String commitHash = blameResult.getSourceCommit(i).getName();
-                long lineSize = blameResult.getResultContents().getString(i).getBytes().length;
-                BlameEntity blameEntity = blameEntityMap.computeIfAbsent(author.getEmailAddress(), key -> new BlameEntity(projectId, devs.get(key), blameFileId, new ArrayList<>(), new ArrayList<>(), 0));
-                blameEntity.getBlameHashes().add(headHash);
-                blameEntity.getLineIds().add(i);
-                blameEntity.setLineSize(blameEntity.getLineSize() + lineSize);
+        if (snapshot != null) {
+            for (int i = 0; i < snapshot.size(); i++) {
+                BlameEntity blameEntity = blameEntityMap.computeIfAbsent(snapshot.getAuthorEmail(i), key -> new BlameEntity(projectId, devs.get(key), blameFileId, new BlameLines(), 0));
+                blameEntity.getLines().add(i, snapshot.getCommit(i));
+                blameEntity.setLineSize(blameEntity.getLineSize() + snapshot.getLineBytes(i));
             }
-        } else System.out.println("Blame for file " + blameResult.getResultPath() + " not found");
+        } else System.out.println("Blame for file " + blameFileId + " not found");
         dataBaseUtil.insertBlame(blameEntityMap.values().stream().toList());
     }
 }
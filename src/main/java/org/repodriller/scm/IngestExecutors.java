@@ -0,0 +1,161 @@
+package org.repodriller.scm;
+
+import java.lang.reflect.Method;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Where the tasks of an ingest stage run.
+ *
+ * CPU-bound stages (diffing, blame) run on a bounded platform pool. I/O-bound stages (SQLite lookups) run on a
+ * virtual thread per task when the runtime has them, with the number of tasks in flight capped so that they do
+ * not open an unbounded number of connections; on older runtimes they fall back to a bounded platform pool.
+ *
+ * Each stage takes a {@link Lease} in a try-with-resources block. Executors created for a lease are shut down
+ * when it closes; executors passed in by the caller through {@link #shared} are left running, so several
+ * repositories can share one thread budget.
+ */
+public class IngestExecutors {
+
+	public static final int DEFAULT_THREADS = Runtime.getRuntime().availableProcessors();
+	public static final int DEFAULT_IO_CONCURRENCY = 4 * DEFAULT_THREADS;
+
+	private static final long TERMINATION_TIMEOUT_SECONDS = 30;
+	/* Executors.newVirtualThreadPerTaskExecutor(), looked up reflectively because the build targets Java 17. */
+	private static final Method NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR = findVirtualThreadFactory();
+
+	public enum Stage { CPU, IO }
+
+	private final Supplier<ExecutorService> cpu;
+	private final Supplier<ExecutorService> io;
+	private final boolean owned;
+	private final int ioConcurrency;
+
+	private IngestExecutors(Supplier<ExecutorService> cpu, Supplier<ExecutorService> io, boolean owned, int ioConcurrency) {
+		this.cpu = cpu;
+		this.io = io;
+		this.owned = owned;
+		this.ioConcurrency = ioConcurrency;
+	}
+
+	/**
+	 * Bounded platform pool for CPU stages, virtual thread per task for I/O stages when available.
+	 */
+	public static IngestExecutors defaults() {
+		return new IngestExecutors(() -> Executors.newFixedThreadPool(DEFAULT_THREADS),
+				() -> virtualThreadsAvailable() ? newVirtualThreadPerTaskExecutor() : Executors.newFixedThreadPool(DEFAULT_THREADS),
+				true, DEFAULT_IO_CONCURRENCY);
+	}
+
+	/**
+	 * Bounded platform pool of the given size for every stage.
+	 */
+	public static IngestExecutors platform(int threads) {
+		if (threads < 1) throw new IllegalArgumentException("threads must be positive: " + threads);
+		return new IngestExecutors(() -> Executors.newFixedThreadPool(threads), () -> Executors.newFixedThreadPool(threads),
+				true, 0);
+	}
+
+	/**
+	 * Caller-owned executors. They are never shut down by a lease.
+	 */
+	public static IngestExecutors shared(ExecutorService cpu, ExecutorService io) {
+		Objects.requireNonNull(cpu);
+		Objects.requireNonNull(io);
+		return new IngestExecutors(() -> cpu, () -> io, false, 0);
+	}
+
+	public static IngestExecutors shared(ExecutorService executor) {
+		return shared(executor, executor);
+	}
+
+	public static boolean virtualThreadsAvailable() {
+		return NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR != null;
+	}
+
+	public Lease lease(Stage stage) {
+		return switch (stage) {
+			case CPU -> new Lease(cpu.get(), owned, 0);
+			case IO -> new Lease(io.get(), owned, ioConcurrency);
+		};
+	}
+
+	private static ExecutorService newVirtualThreadPerTaskExecutor() {
+		try {
+			return (ExecutorService) NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR.invoke(null);
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException("Could not create a virtual thread executor", e);
+		}
+	}
+
+	private static Method findVirtualThreadFactory() {
+		try {
+			return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+		} catch (NoSuchMethodException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * An executor for the duration of one stage.
+	 */
+	public static class Lease implements AutoCloseable {
+
+		private final ExecutorService executor;
+		private final boolean owned;
+		private final Semaphore permits;
+
+		private Lease(ExecutorService executor, boolean owned, int concurrency) {
+			this.executor = executor;
+			this.owned = owned;
+			this.permits = concurrency > 0 ? new Semaphore(concurrency) : null;
+		}
+
+		public Future<?> submit(Runnable task) {
+			return submit(() -> {
+				task.run();
+				return null;
+			});
+		}
+
+		public <T> Future<T> submit(Callable<T> task) {
+			if (permits == null) {
+				return executor.submit(task);
+			}
+			return executor.submit(() -> {
+				permits.acquire();
+				try {
+					return task.call();
+				} finally {
+					permits.release();
+				}
+			});
+		}
+
+		public ExecutorService getExecutor() {
+			return executor;
+		}
+
+		/**
+		 * Shuts an owned executor down, cancelling whatever a failed stage left queued.
+		 */
+		@Override
+		public void close() {
+			if (!owned) {
+				return;
+			}
+			executor.shutdownNow();
+			try {
+				executor.awaitTermination(TERMINATION_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+}
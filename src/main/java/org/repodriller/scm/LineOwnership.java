@@ -0,0 +1,221 @@
+package org.repodriller.scm;
+
+import org.eclipse.jgit.diff.Edit;
+import org.eclipse.jgit.diff.EditList;
+import org.eclipse.jgit.lib.ObjectId;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Which author wrote each line of one version of a file, as runs of consecutive lines by the same author.
+ *
+ * Instances are immutable: {@link #apply} returns the ownership of the next version, so versions on different
+ * branches can share the unchanged ones. Authors are plain ints whose meaning is up to the caller, see
+ * {@link OwnershipEstimator}.
+ */
+public class LineOwnership {
+
+	public static final LineOwnership EMPTY = new LineOwnership(new int[0], new int[0], ObjectId.zeroId(), 0);
+
+	private static final byte FORMAT = 1;
+
+	private final int[] authors;
+	private final int[] lengths;
+	private final ObjectId blob;
+	private final long bytes;
+	private final int lines;
+
+	private LineOwnership(int[] authors, int[] lengths, ObjectId blob, long bytes) {
+		this.authors = authors;
+		this.lengths = lengths;
+		this.blob = blob;
+		this.bytes = bytes;
+		this.lines = Arrays.stream(lengths).sum();
+	}
+
+	/**
+	 * @param edits Edits from this version to the next one, in ascending order as JGit produces them.
+	 * @param author Author of the lines the edits insert or replace.
+	 * @param newBlob Blob of the next version.
+	 * @param newBytes Size of that blob.
+	 * @return Ownership of the next version. Edits reaching past the last line, which only happens when this
+	 * ownership does not belong to the old side of the edits, are cut off.
+	 */
+	public LineOwnership apply(EditList edits, int author, ObjectId newBlob, long newBytes) {
+		Runs out = new Runs(authors.length + 2 * edits.size() + 1);
+		Cursor cursor = new Cursor();
+		int line = 0;
+		for (Edit edit : edits) {
+			int begin = Math.min(edit.getBeginA(), lines);
+			int end = Math.min(edit.getEndA(), lines);
+			if (begin < line) {
+				continue;
+			}
+			cursor.copy(begin - line, out);
+			cursor.skip(end - begin);
+			out.add(author, edit.getLengthB());
+			line = end;
+		}
+		cursor.copy(lines - line, out);
+		return new LineOwnership(out.authors(), out.lengths(), newBlob.copy(), newBytes);
+	}
+
+	/**
+	 * @return The same ownership with every author replaced by {@code mapping(author)}.
+	 */
+	public LineOwnership mapAuthors(IntUnaryOperator mapping) {
+		Runs out = new Runs(authors.length);
+		for (int i = 0; i < authors.length; i++) {
+			out.add(mapping.applyAsInt(authors[i]), lengths[i]);
+		}
+		return new LineOwnership(out.authors(), out.lengths(), blob, bytes);
+	}
+
+	/**
+	 * @return Number of lines of each author.
+	 */
+	public Map<Integer, Integer> linesByAuthor() {
+		Map<Integer, Integer> owners = new HashMap<>();
+		for (int i = 0; i < authors.length; i++) {
+			owners.merge(authors[i], lengths[i], Integer::sum);
+		}
+		return owners;
+	}
+
+	/**
+	 * @return Bytes attributed to {@code authorLines} lines, assuming all lines of the file are equally long.
+	 */
+	public long estimateBytes(int authorLines) {
+		return lines == 0 ? 0 : Math.round((double) bytes * authorLines / lines);
+	}
+
+	public int getLines() {
+		return lines;
+	}
+
+	public ObjectId getBlob() {
+		return blob;
+	}
+
+	public long getBytes() {
+		return bytes;
+	}
+
+	public byte[] encode() {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (DataOutputStream data = new DataOutputStream(out)) {
+			data.writeByte(FORMAT);
+			blob.copyRawTo(data);
+			data.writeLong(bytes);
+			data.writeInt(authors.length);
+			for (int i = 0; i < authors.length; i++) {
+				data.writeInt(authors[i]);
+				data.writeInt(lengths[i]);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * @return The ownership, or null when it was written in a format this version does not read.
+	 */
+	public static LineOwnership decode(byte[] encoded) {
+		try (DataInputStream data = new DataInputStream(new ByteArrayInputStream(encoded))) {
+			if (data.readByte() != FORMAT) {
+				return null;
+			}
+			byte[] raw = new byte[20];
+			data.readFully(raw);
+			long bytes = data.readLong();
+			int runs = data.readInt();
+			int[] authors = new int[runs];
+			int[] lengths = new int[runs];
+			for (int i = 0; i < runs; i++) {
+				authors[i] = data.readInt();
+				lengths[i] = data.readInt();
+			}
+			return new LineOwnership(authors, lengths, ObjectId.fromRaw(raw), bytes);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/* Position in the runs of this ownership while an edit list is applied. */
+	private final class Cursor {
+		private int run;
+		private int offset;
+
+		void copy(int count, Runs out) {
+			while (count > 0) {
+				int take = Math.min(count, lengths[run] - offset);
+				out.add(authors[run], take);
+				advance(take);
+				count -= take;
+			}
+		}
+
+		void skip(int count) {
+			while (count > 0) {
+				int take = Math.min(count, lengths[run] - offset);
+				advance(take);
+				count -= take;
+			}
+		}
+
+		private void advance(int count) {
+			offset += count;
+			if (offset == lengths[run]) {
+				run++;
+				offset = 0;
+			}
+		}
+	}
+
+	/* Runs under construction; adjacent runs of the same author are joined. */
+	private static final class Runs {
+		private int[] authors;
+		private int[] lengths;
+		private int size;
+
+		Runs(int capacity) {
+			authors = new int[Math.max(capacity, 1)];
+			lengths = new int[authors.length];
+		}
+
+		void add(int author, int length) {
+			if (length <= 0) {
+				return;
+			}
+			if (size > 0 && authors[size - 1] == author) {
+				lengths[size - 1] += length;
+				return;
+			}
+			if (size == authors.length) {
+				authors = Arrays.copyOf(authors, size * 2);
+				lengths = Arrays.copyOf(lengths, size * 2);
+			}
+			authors[size] = author;
+			lengths[size] = length;
+			size++;
+		}
+
+		int[] authors() {
+			return Arrays.copyOf(authors, size);
+		}
+
+		int[] lengths() {
+			return Arrays.copyOf(lengths, size);
+		}
+	}
+}
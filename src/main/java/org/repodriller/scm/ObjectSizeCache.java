@@ -0,0 +1,259 @@
+package org.repodriller.scm;
+
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectReader;
+
+import java.io.IOException;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Memory-capped map from object id to size.
+ *
+ * Keys are stored as the five raw words of the SHA-1 and values as primitive longs in open-addressing tables,
+ * about 30 bytes per entry instead of a hex String and a boxed Long. The table is split into independently
+ * locked segments; once a segment is full, inserts evict entries that were not read since the clock hand last
+ * passed them.
+ *
+ * A size means the content size for blobs and the recursive content size for trees and commits,
+ * see {@link ProjectSizeCalculator}. Ids of different object types never collide, so one cache holds all three.
+ */
+public class ObjectSizeCache {
+
+	public static final long DEFAULT_MAX_BYTES = 32L * 1024 * 1024;
+	public static final long MISSING = -1;
+
+	private static final int SEGMENT_BITS = 4;
+	private static final int SEGMENTS = 1 << SEGMENT_BITS;
+	private static final int INITIAL_SLOTS = 256;
+	/* Five key words, one value, one flag byte. */
+	private static final int BYTES_PER_SLOT = 5 * Integer.BYTES + Long.BYTES + 1;
+
+	private final Segment[] segments = new Segment[SEGMENTS];
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	public ObjectSizeCache() {
+		this(DEFAULT_MAX_BYTES);
+	}
+
+	public ObjectSizeCache(long maxBytes) {
+		long slotsPerSegment = Math.max(INITIAL_SLOTS, maxBytes / BYTES_PER_SLOT / SEGMENTS);
+		int maxSlots = Integer.highestOneBit((int) Math.min(slotsPerSegment, 1 << 26));
+		for (int i = 0; i < SEGMENTS; i++) {
+			segments[i] = new Segment(maxSlots);
+		}
+	}
+
+	/**
+	 * @return The cached size, or {@link #MISSING}.
+	 */
+	public long get(AnyObjectId id) {
+		long size = segmentFor(id).get(id);
+		if (size == MISSING) {
+			misses.increment();
+		} else {
+			hits.increment();
+		}
+		return size;
+	}
+
+	public void put(AnyObjectId id, long size) {
+		if (segmentFor(id).put(id, size)) {
+			evictions.increment();
+		}
+	}
+
+	/**
+	 * @return Size of the blob, read through {@code reader} and cached if it was not cached yet.
+	 */
+	public long getBlobSize(AnyObjectId blob, ObjectReader reader) throws IOException {
+		long size = get(blob);
+		if (size == MISSING) {
+			size = reader.getObjectSize(blob, Constants.OBJ_BLOB);
+			put(blob, size);
+		}
+		return size;
+	}
+
+	public long size() {
+		long size = 0;
+		for (Segment segment : segments) {
+			size += segment.size();
+		}
+		return size;
+	}
+
+	public long getHits() {
+		return hits.sum();
+	}
+
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	public long getEvictions() {
+		return evictions.sum();
+	}
+
+	public void clear() {
+		for (Segment segment : segments) {
+			segment.clear();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "ObjectSizeCache [size=" + size() + ", hits=" + getHits() + ", misses=" + getMisses()
+				+ ", evictions=" + getEvictions() + "]";
+	}
+
+	private Segment segmentFor(AnyObjectId id) {
+		/* hashCode() is the second word of the SHA-1; slots use its low bits, segments its high bits. */
+		return segments[id.hashCode() >>> (Integer.SIZE - SEGMENT_BITS)];
+	}
+
+	private static final class Segment {
+
+		private static final byte EMPTY = 0;
+		private static final byte PRESENT = 1;
+		private static final byte REFERENCED = 2;
+
+		private final int maxSlots;
+		private int[] keys;
+		private long[] values;
+		private byte[] flags;
+		private int mask;
+		private int count;
+		private int hand;
+
+		Segment(int maxSlots) {
+			this.maxSlots = maxSlots;
+			allocate(Math.min(INITIAL_SLOTS, maxSlots));
+		}
+
+		synchronized long get(AnyObjectId id) {
+			int slot = find(id);
+			if (slot < 0) {
+				return MISSING;
+			}
+			flags[slot] = REFERENCED;
+			return values[slot];
+		}
+
+		/**
+		 * @return true if an entry was evicted to make room.
+		 */
+		synchronized boolean put(AnyObjectId id, long size) {
+			int slot = find(id);
+			if (slot >= 0) {
+				values[slot] = size;
+				return false;
+			}
+			boolean evicted = false;
+			if (count >= maxEntries()) {
+				if (keys.length / 5 < maxSlots) {
+					allocate(keys.length / 5 * 2);
+				} else {
+					evictOne();
+					evicted = true;
+				}
+			}
+			slot = id.hashCode() & mask;
+			while (flags[slot] != EMPTY) {
+				slot = (slot + 1) & mask;
+			}
+			id.copyRawTo(keys, slot * 5);
+			values[slot] = size;
+			flags[slot] = PRESENT;
+			count++;
+			return evicted;
+		}
+
+		synchronized int size() {
+			return count;
+		}
+
+		synchronized void clear() {
+			flags = null;
+			allocate(Math.min(INITIAL_SLOTS, maxSlots));
+		}
+
+		private int maxEntries() {
+			return (mask + 1) / 4 * 3;
+		}
+
+		private int find(AnyObjectId id) {
+			int slot = id.hashCode() & mask;
+			while (flags[slot] != EMPTY) {
+				if (id.compareTo(keys, slot * 5) == 0) {
+					return slot;
+				}
+				slot = (slot + 1) & mask;
+			}
+			return -1;
+		}
+
+		private void evictOne() {
+			while (true) {
+				int slot = hand;
+				hand = (hand + 1) & mask;
+				if (flags[slot] == PRESENT) {
+					removeAt(slot);
+					return;
+				}
+				if (flags[slot] == REFERENCED) {
+					flags[slot] = PRESENT;
+				}
+			}
+		}
+
+		/* Backward-shift deletion, so that probe sequences stay unbroken without tombstones. */
+		private void removeAt(int slot) {
+			int hole = slot;
+			int next = (hole + 1) & mask;
+			while (flags[next] != EMPTY) {
+				int home = keys[next * 5 + 1] & mask;
+				if (((next - home) & mask) >= ((next - hole) & mask)) {
+					System.arraycopy(keys, next * 5, keys, hole * 5, 5);
+					values[hole] = values[next];
+					flags[hole] = flags[next];
+					hole = next;
+				}
+				next = (next + 1) & mask;
+			}
+			flags[hole] = EMPTY;
+			count--;
+		}
+
+		private void allocate(int slots) {
+			int[] oldKeys = keys;
+			long[] oldValues = values;
+			byte[] oldFlags = flags;
+			keys = new int[slots * 5];
+			values = new long[slots];
+			flags = new byte[slots];
+			mask = slots - 1;
+			count = 0;
+			hand = 0;
+			if (oldFlags == null) {
+				return;
+			}
+			for (int i = 0; i < oldFlags.length; i++) {
+				if (oldFlags[i] == EMPTY) {
+					continue;
+				}
+				int slot = oldKeys[i * 5 + 1] & mask;
+				while (flags[slot] != EMPTY) {
+					slot = (slot + 1) & mask;
+				}
+				System.arraycopy(oldKeys, i * 5, keys, slot * 5, 5);
+				values[slot] = oldValues[i];
+				flags[slot] = oldFlags[i];
+				count++;
+			}
+		}
+	}
+}
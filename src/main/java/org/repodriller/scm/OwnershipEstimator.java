@@ -0,0 +1,278 @@
+package org.repodriller.scm;
+
+import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.diff.DiffEntry.ChangeType;
+import org.eclipse.jgit.diff.EditList;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.repodriller.util.DataBaseUtil;
+import org.repodriller.util.IdDictionary;
+import org.repodriller.util.LineOwner;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Line ownership of the ingested head without blame: the ingest hands over the {@link CommitAnalysis} of every
+ * commit, and the edits of each commit against its first parent move the {@link LineOwnership} of the files it
+ * touched forward, attributing inserted and replaced lines to its author.
+ *
+ * Analyses arrive in any order from the ingest workers; a commit is applied once all of its parents are. Each
+ * applied commit keeps its file states until its last child is applied, so branches evolve independently. A
+ * merge takes a file over from another parent when it has the same content there, so that lines merged in keep
+ * their authors; otherwise the merge is treated like any other commit.
+ *
+ * The result is an estimate. It counts moved lines as new, and it only knows the files touched since the stored
+ * estimate it started from, or since the root commits when there is none. If a parent is neither in the ingest nor
+ * the stored head, or a commit fails to arrive, the estimate is dropped instead of being stored incomplete.
+ */
+public class OwnershipEstimator {
+
+	private static final class Change {
+		private final ChangeType type;
+		private final String oldPath;
+		private final String newPath;
+		private final ObjectId newBlob;
+		private final long newBytes;
+		private final EditList edits;
+
+		Change(DiffEntry diff, EditList edits, long newBytes) {
+			this.type = diff.getChangeType();
+			this.oldPath = diff.getOldPath();
+			this.newPath = diff.getNewPath();
+			this.newBlob = diff.getNewId().toObjectId();
+			this.newBytes = newBytes;
+			this.edits = edits;
+		}
+	}
+
+	private final DataBaseUtil dataBaseUtil;
+	private final int projectId;
+	private final ObjectId head;
+	private final ObjectSizeCache sizes;
+	private final ObjectId baseHead;
+	private final Map<String, LineOwnership> base;
+	private final Set<ObjectId> commits = new HashSet<>();
+	private final Map<ObjectId, List<RevCommit>> children = new HashMap<>();
+	private final Map<ObjectId, Integer> remainingChildren = new HashMap<>();
+	private final Set<ObjectId> applied = new HashSet<>();
+	private final Map<ObjectId, List<Change>> pending = new HashMap<>();
+	private final Map<ObjectId, RevCommit> pendingCommits = new HashMap<>();
+	private final Map<ObjectId, Map<String, LineOwnership>> states = new HashMap<>();
+	private final List<String> authors = new ArrayList<>();
+	private final Map<String, Integer> authorIndexes = new HashMap<>();
+	/* Paths whose ownership differs from the stored estimate. */
+	private final Set<String> touched = new HashSet<>();
+	private boolean complete = true;
+
+	/**
+	 * Continue the stored estimate of the project if there is one.
+	 *
+	 * @param commits The commits of the ingest, in any order.
+	 * @param head The commit the ingest ends at.
+	 */
+	public OwnershipEstimator(DataBaseUtil dataBaseUtil, int projectId, List<RevCommit> commits, ObjectId head, ObjectSizeCache sizes) {
+		this.dataBaseUtil = dataBaseUtil;
+		this.projectId = projectId;
+		this.head = head.copy();
+		this.sizes = sizes;
+		for (RevCommit commit : commits) {
+			this.commits.add(commit.copy());
+		}
+		for (RevCommit commit : commits) {
+			for (RevCommit parent : commit.getParents()) {
+				if (this.commits.contains(parent)) {
+					children.computeIfAbsent(parent.copy(), k -> new ArrayList<>()).add(commit);
+					remainingChildren.merge(parent.copy(), 1, Integer::sum);
+				}
+			}
+		}
+		String stored = dataBaseUtil.getOwnershipHead(projectId);
+		this.baseHead = stored != null && ObjectId.isId(stored) ? ObjectId.fromString(stored) : null;
+		this.base = baseHead != null ? loadBase() : Collections.emptyMap();
+	}
+
+	/**
+	 * Hand over the analysis of one commit of the ingest; thread-safe.
+	 *
+	 * @param reader Reader of the calling thread, for blob sizes that are no longer cached.
+	 */
+	public void offer(RevCommit commit, CommitAnalysis analysis, ObjectReader reader) throws IOException {
+		List<Change> changes = new ArrayList<>(analysis.getDiffs().size());
+		for (int i = 0; i < analysis.getDiffs().size(); i++) {
+			DiffEntry diff = analysis.getDiffs().get(i);
+			boolean blob = diff.getNewMode().getObjectType() == Constants.OBJ_BLOB;
+			long bytes = blob && diff.getChangeType() != ChangeType.DELETE
+					? sizes.getBlobSize(diff.getNewId().toObjectId(), reader) : 0;
+			changes.add(new Change(diff, analysis.getEditLists().get(i), bytes));
+		}
+		synchronized (this) {
+			pending.put(commit.copy(), changes);
+			pendingCommits.put(commit.copy(), commit);
+			Deque<RevCommit> ready = new ArrayDeque<>();
+			ready.add(commit);
+			while (!ready.isEmpty()) {
+				RevCommit next = ready.poll();
+				if (!pending.containsKey(next) || !parentsApplied(next)) {
+					continue;
+				}
+				apply(pendingCommits.remove(next), pending.remove(next));
+				ready.addAll(children.getOrDefault(next, Collections.emptyList()));
+			}
+		}
+	}
+
+	/**
+	 * Store the estimate for the head of the ingest, or drop the stored one if it could not be completed.
+	 */
+	public synchronized void store() {
+		Map<String, LineOwnership> state = states.get(head);
+		if (!complete || !pending.isEmpty() || state == null) {
+			dataBaseUtil.clearOwnership(projectId);
+			return;
+		}
+		IdDictionary filePathIds = dataBaseUtil.filePathIds(projectId);
+		IdDictionary authorIds = dataBaseUtil.authorIds(projectId);
+		long[] ids = new long[authors.size()];
+		for (int i = 0; i < ids.length; i++) {
+			Long id = authorIds.get(authors.get(i));
+			ids[i] = id != null ? id : -1;
+		}
+		List<Long> changed = new ArrayList<>();
+		Map<Long, byte[]> files = new HashMap<>();
+		List<LineOwner> owners = new ArrayList<>();
+		for (String path : touched) {
+			Long filePathId = filePathIds.get(path);
+			if (filePathId == null) {
+				continue;
+			}
+			changed.add(filePathId);
+			LineOwnership ownership = state.get(path);
+			if (ownership == null) {
+				continue;
+			}
+			files.put(filePathId, ownership.mapAuthors(author -> (int) ids[author]).encode());
+			ownership.linesByAuthor().forEach((author, lines) -> {
+				if (ids[author] >= 0) {
+					owners.add(new LineOwner(filePathId, ids[author], lines, ownership.estimateBytes(lines)));
+				}
+			});
+		}
+		dataBaseUtil.storeOwnership(projectId, head.getName(), changed, files, owners);
+	}
+
+	private boolean parentsApplied(RevCommit commit) {
+		for (RevCommit parent : commit.getParents()) {
+			if (commits.contains(parent) && !applied.contains(parent)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void apply(RevCommit commit, List<Change> changes) {
+		List<Map<String, LineOwnership>> parents = new ArrayList<>();
+		for (RevCommit parent : commit.getParents()) {
+			parents.add(stateOf(parent));
+		}
+		Map<String, LineOwnership> first = parents.isEmpty() ? Collections.emptyMap() : parents.get(0);
+		int author = author(commit.getAuthorIdent().getEmailAddress());
+
+		/* Everything is read from the parents before the new state, which may be the first parent's, changes. */
+		Set<String> removed = new HashSet<>();
+		Map<String, LineOwnership> updated = new HashMap<>();
+		for (Change change : changes) {
+			if (change.type == ChangeType.DELETE || change.type == ChangeType.RENAME) {
+				removed.add(change.oldPath);
+			}
+			if (change.type == ChangeType.DELETE) {
+				continue;
+			}
+			LineOwnership merged = null;
+			for (int p = 1; p < parents.size() && merged == null; p++) {
+				LineOwnership other = parents.get(p).get(change.newPath);
+				if (other != null && other.getBlob().equals(change.newBlob)) {
+					merged = other;
+				}
+			}
+			LineOwnership source = change.type == ChangeType.ADD ? LineOwnership.EMPTY
+					: first.getOrDefault(change.oldPath, LineOwnership.EMPTY);
+			updated.put(change.newPath, merged != null ? merged : source.apply(change.edits, author, change.newBlob, change.newBytes));
+		}
+
+		Map<String, LineOwnership> state = ownState(commit);
+		state.keySet().removeAll(removed);
+		state.putAll(updated);
+		touched.addAll(removed);
+		touched.addAll(updated.keySet());
+
+		applied.add(commit.copy());
+		for (RevCommit parent : commit.getParents()) {
+			Integer remaining = remainingChildren.computeIfPresent(parent, (k, n) -> n - 1);
+			if (remaining != null && remaining == 0 && !parent.equals(head)) {
+				states.remove(parent);
+			}
+		}
+		if (remainingChildren.containsKey(commit) || commit.equals(head)) {
+			states.put(commit.copy(), state);
+		}
+	}
+
+	/**
+	 * @return A state for {@code commit} to change: its first parent's if no other child still needs it, a copy
+	 * otherwise.
+	 */
+	private Map<String, LineOwnership> ownState(RevCommit commit) {
+		if (commit.getParentCount() == 0) {
+			return new HashMap<>();
+		}
+		RevCommit first = commit.getParent(0);
+		boolean lastChild = commits.contains(first) && remainingChildren.get(first) == 1 && !first.equals(head);
+		for (int p = 1; p < commit.getParentCount(); p++) {
+			lastChild &= !commit.getParent(p).equals(first);
+		}
+		return lastChild ? states.remove(first) : new HashMap<>(stateOf(first));
+	}
+
+	private Map<String, LineOwnership> stateOf(RevCommit parent) {
+		if (commits.contains(parent)) {
+			return states.get(parent);
+		}
+		if (parent.equals(baseHead)) {
+			return base;
+		}
+		/* A parent that was ingested before the stored estimate, or without one. */
+		complete = false;
+		return Collections.emptyMap();
+	}
+
+	private int author(String email) {
+		return authorIndexes.computeIfAbsent(email, k -> {
+			authors.add(k);
+			return authors.size() - 1;
+		});
+	}
+
+	private Map<String, LineOwnership> loadBase() {
+		Map<Long, String> emails = new HashMap<>();
+		dataBaseUtil.getDevelopersByProjectId(projectId).forEach((email, id) -> emails.put(id, email));
+		Map<String, LineOwnership> files = new HashMap<>();
+		dataBaseUtil.getOwnershipFiles(projectId).forEach((path, data) -> {
+			LineOwnership ownership = LineOwnership.decode(data);
+			if (ownership != null) {
+				files.put(path, ownership.mapAuthors(id -> author(emails.getOrDefault((long) id, ""))));
+			}
+		});
+		return files;
+	}
+}
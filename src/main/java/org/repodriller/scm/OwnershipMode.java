@@ -0,0 +1,11 @@
+package org.repodriller.scm;
+
+/**
+ * How {@link GitRepository#getDeveloperInfo(String)} attributes the lines of the current head to developers.
+ */
+public enum OwnershipMode {
+	/** Lines are attributed by the edits of each commit as the ingest walks the history, see {@link OwnershipEstimator}. */
+	ESTIMATE,
+	/** Every file is blamed. Exact, but far more expensive. */
+	BLAME
+}
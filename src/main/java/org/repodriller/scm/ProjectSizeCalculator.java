@@ -0,0 +1,98 @@
+package org.repodriller.scm;
+
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.treewalk.CanonicalTreeParser;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+
+import java.io.IOException;
+
+/**
+ * Total blob size of a commit's tree, computed incrementally.
+ *
+ * When the first parent's size is cached, the result is the parent's size plus the size difference of every
+ * blob that differs between the two trees, taken from the {@link CommitAnalysis} when there is one. Otherwise the tree is summed recursively, memoizing each subtree by
+ * its id so that unchanged directories are only read once. Commit, tree and blob sizes share one
+ * {@link ObjectSizeCache}, so a repository's cache carries over between ingest runs.
+ *
+ * Thread-safe; share one instance between the workers of a run.
+ */
+public class ProjectSizeCalculator {
+
+	private final ObjectSizeCache sizes;
+
+	public ProjectSizeCalculator(ObjectSizeCache sizes) {
+		this.sizes = sizes;
+	}
+
+	public long sizeOf(RevCommit commit, AnalysisContext context) throws IOException {
+		long size = ObjectSizeCache.MISSING;
+		if (commit.getParentCount() > 0) {
+			RevCommit parent = commit.getParent(0);
+			long parentSize = sizes.get(parent);
+			if (parentSize != ObjectSizeCache.MISSING && parent.getTree() != null) {
+				size = parentSize + delta(parent, commit, context);
+			}
+		}
+		if (size == ObjectSizeCache.MISSING) {
+			size = treeSize(commit.getTree(), context);
+		}
+		sizes.put(commit, size);
+		return size;
+	}
+
+	public long sizeOf(CommitAnalysis analysis, AnalysisContext context) throws IOException {
+		RevCommit commit = analysis.getCommit();
+		long size = ObjectSizeCache.MISSING;
+		if (commit.getParentCount() > 0) {
+			long parentSize = sizes.get(commit.getParent(0));
+			if (parentSize != ObjectSizeCache.MISSING) {
+				size = parentSize + analysis.getSizeDelta();
+			}
+		}
+		if (size == ObjectSizeCache.MISSING) {
+			size = treeSize(commit.getTree(), context);
+		}
+		sizes.put(commit, size);
+		return size;
+	}
+
+	private long delta(RevCommit parent, RevCommit commit, AnalysisContext context) throws IOException {
+		TreeWalk treeWalk = context.getTreeWalk();
+		treeWalk.addTree(parent.getTree());
+		treeWalk.addTree(commit.getTree());
+		treeWalk.setFilter(TreeFilter.ANY_DIFF);
+		long delta = 0;
+		while (treeWalk.next()) {
+			delta += entrySize(treeWalk, 1, context) - entrySize(treeWalk, 0, context);
+		}
+		return delta;
+	}
+
+	private long entrySize(TreeWalk treeWalk, int tree, AnalysisContext context) throws IOException {
+		if (treeWalk.getFileMode(tree).getObjectType() != Constants.OBJ_BLOB) {
+			return 0;
+		}
+		return sizes.getBlobSize(treeWalk.getObjectId(tree), context.getReader());
+	}
+
+	private long treeSize(AnyObjectId tree, AnalysisContext context) throws IOException {
+		long cached = sizes.get(tree);
+		if (cached != ObjectSizeCache.MISSING) {
+			return cached;
+		}
+		long size = 0;
+		CanonicalTreeParser parser = new CanonicalTreeParser(null, context.getReader(), tree);
+		for (; !parser.eof(); parser.next()) {
+			switch (parser.getEntryFileMode().getObjectType()) {
+				case Constants.OBJ_TREE -> size += treeSize(parser.getEntryObjectId(), context);
+				case Constants.OBJ_BLOB -> size += sizes.getBlobSize(parser.getEntryObjectId(), context.getReader());
+				default -> { /* Gitlinks point into other repositories. */ }
+			}
+		}
+		sizes.put(tree, size);
+		return size;
+	}
+}
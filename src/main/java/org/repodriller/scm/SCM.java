@@ -26,6 +26,7 @@ import org.repodriller.scm.entities.BlamedLine;
 import org.repodriller.scm.entities.CommitSize;
 import org.repodriller.scm.entities.DeveloperInfo;
 import org.repodriller.scm.exceptions.CheckoutException;
+import org.repodriller.scm.metrics.IngestListener;
 
 import java.io.IOException;
 import java.nio.file.Path;
@@ -106,6 +107,8 @@ public interface SCM {
 	Map<String, CommitSize> repositorySize(String filePath);
 	Map<String, CommitSize> repositorySize(String branchOrTag, String filePath);
 	void dbPrepared() throws GitAPIException, IOException;
+	void addIngestListener(IngestListener listener);
+	void removeIngestListener(IngestListener listener);
 
 	@Deprecated
 	String blame(String file, String currentCommit, Integer line);
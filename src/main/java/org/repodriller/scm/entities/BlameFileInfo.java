@@ -33,6 +33,16 @@ public class BlameFileInfo {
         this.commits.addAll(authorInfo.getCommits());
     }
 
+    /**
+     * Adds the lines of another blame of the same file.
+     *
+     * @return This info.
+     */
+    public BlameFileInfo merge(BlameFileInfo other) {
+        other.authorInfos.values().forEach(this::add);
+        return this;
+    }
+
     public RevCommit findLatestCommit() {
         RevCommit latestCommit = null;
         int latestTime = 0;
@@ -6,6 +6,7 @@ import org.eclipse.jgit.diff.DiffFormatter;
 import org.eclipse.jgit.diff.EditList;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevCommit;
+import org.repodriller.util.AuthorStats;
 import org.repodriller.util.CommitEntity;
 import org.repodriller.util.FileEntity;
 
@@ -57,6 +58,21 @@ public class DeveloperInfo {
         this.fileModified = commitEntity.getFileEntity().getFileModified();
     }
 
+    /**
+     * Counters taken from the ingest-time rollup; commits are added separately with {@link #addCommit}.
+     */
+    public DeveloperInfo(AuthorStats stats) {
+        this(stats.getAuthorName(), stats.getAuthorEmail(), stats.getAuthorId());
+        this.changes = stats.getChanges();
+        this.changesSize = stats.getChangesSize();
+        this.linesAdded = stats.getLinesAdded();
+        this.linesDeleted = stats.getLinesDeleted();
+        this.linesModified = stats.getLinesModified();
+        this.fileAdded = stats.getFileAdded();
+        this.fileDeleted = stats.getFileDeleted();
+        this.fileModified = stats.getFileModified();
+    }
+
     public DeveloperInfo(String name, String emailAddress, long id) {
         this.id = id;
         this.name = name;
@@ -121,6 +137,19 @@ public class DeveloperInfo {
 
     public void processDiff(DiffEntry diff, Repository repository) throws IOException {
         ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (DiffFormatter diffFormatter = new DiffFormatter(out)) {
+            diffFormatter.setRepository(repository);
+            diffFormatter.setDetectRenames(true);
+            processDiff(diff, diffFormatter, out);
+        }
+    }
+
+    public void processDiff(DiffEntry diff, DiffFormatter diffFormatter, ByteArrayOutputStream out) throws IOException {
+        processDiff(diff, diffFormatter.toFileHeader(diff).toEditList(), diffFormatter, out);
+    }
+
+    public void processDiff(DiffEntry diff, EditList editList, DiffFormatter diffFormatter, ByteArrayOutputStream out) throws IOException {
+        out.reset();
         if (diff.getChangeType() == DiffEntry.ChangeType.ADD) {
             this.addAuthoredFile(diff.getNewPath());
         }
@@ -129,30 +158,26 @@ public class DeveloperInfo {
             case DELETE -> fileDeleted++;
             case MODIFY -> fileModified++;
         }
-        try (DiffFormatter diffFormatter = new DiffFormatter(out)) {
-            diffFormatter.setRepository(repository);
-            diffFormatter.setDetectRenames(true);
-            diffFormatter.format(diff);
-
-            EditList editList = diffFormatter.toFileHeader(diff).toEditList();
-            for (var edit : editList) {
-                switch (edit.getType()) {
-                    case INSERT -> {
-                        linesAdded += edit.getLengthB();
-                        changes += edit.getLengthB();
-                    }
-                    case DELETE -> {
-                        linesDeleted += edit.getLengthA();
-                        changes += edit.getLengthA();
-                    }
-                    case REPLACE -> {
-                        //TODO getLengthA (removed)  getLengthB (added) - maybe max(A,B) or just B
-                        linesModified += edit.getLengthA() + edit.getLengthB();
-                        changes += edit.getLengthA() + edit.getLengthB();
-                    }
+        diffFormatter.format(diff);
+
+        for (var edit : editList) {
+            switch (edit.getType()) {
+                case INSERT -> {
+                    linesAdded += edit.getLengthB();
+                    changes += edit.getLengthB();
+                }
+                case DELETE -> {
+                    linesDeleted += edit.getLengthA();
+                    changes += edit.getLengthA();
+                }
+                case REPLACE -> {
+                    //TODO getLengthA (removed)  getLengthB (added) - maybe max(A,B) or just B
+                    linesModified += edit.getLengthA() + edit.getLengthB();
+                    changes += edit.getLengthA() + edit.getLengthB();
                 }
             }
         }
+        diffFormatter.flush();
         changesSize += out.size();
     }
 
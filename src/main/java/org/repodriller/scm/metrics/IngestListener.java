@@ -0,0 +1,80 @@
+package org.repodriller.scm.metrics;
+
+import java.util.List;
+
+/**
+ * Callbacks from {@link org.repodriller.scm.GitRepository#dbPrepared()} and
+ * {@link org.repodriller.scm.GitRepository#getDeveloperInfo(String)}.
+ *
+ * Methods are called from worker and writer threads, possibly concurrently, and must not block.
+ * All durations are in nanoseconds.
+ */
+public interface IngestListener {
+
+	IngestListener NONE = new IngestListener() {};
+
+	/**
+	 * @param commits Number of commits that will be analysed.
+	 */
+	default void ingestStarted(String repository, int commits) {}
+
+	/**
+	 * One commit finished one stage; called for {@link IngestStage#DIFF}, {@link IngestStage#SIZE} and
+	 * {@link IngestStage#STABILITY}.
+	 */
+	default void stageCompleted(IngestStage stage, String commit, long nanos) {}
+
+	/**
+	 * @param queueDepth Records still waiting in the writer queue after this batch was taken.
+	 */
+	default void batchWritten(int commits, long nanos, int queueDepth) {}
+
+	/**
+	 * The database reported SQLITE_BUSY and the statement will be retried.
+	 */
+	default void busyRetry(int attempt) {}
+
+	default void fileBlamed(String path, long nanos) {}
+
+	default void ingestFinished(String repository, int commits, long nanos) {}
+
+	/**
+	 * @return A listener that forwards every callback to each of {@code listeners} in order.
+	 */
+	static IngestListener of(List<? extends IngestListener> listeners) {
+		List<IngestListener> copy = List.copyOf(listeners);
+		if (copy.isEmpty()) return NONE;
+		if (copy.size() == 1) return copy.get(0);
+		return new IngestListener() {
+			@Override
+			public void ingestStarted(String repository, int commits) {
+				copy.forEach(it -> it.ingestStarted(repository, commits));
+			}
+
+			@Override
+			public void stageCompleted(IngestStage stage, String commit, long nanos) {
+				copy.forEach(it -> it.stageCompleted(stage, commit, nanos));
+			}
+
+			@Override
+			public void batchWritten(int commits, long nanos, int queueDepth) {
+				copy.forEach(it -> it.batchWritten(commits, nanos, queueDepth));
+			}
+
+			@Override
+			public void busyRetry(int attempt) {
+				copy.forEach(it -> it.busyRetry(attempt));
+			}
+
+			@Override
+			public void fileBlamed(String path, long nanos) {
+				copy.forEach(it -> it.fileBlamed(path, nanos));
+			}
+
+			@Override
+			public void ingestFinished(String repository, int commits, long nanos) {
+				copy.forEach(it -> it.ingestFinished(repository, commits, nanos));
+			}
+		};
+	}
+}
@@ -0,0 +1,133 @@
+package org.repodriller.scm.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Listener that accumulates ingest timings and counters.
+ *
+ * Stage times are summed over all workers, so with N workers they can add up to N times the wall-clock time;
+ * compare them with each other to find the bottleneck. Thread-safe.
+ */
+public class IngestMetrics implements IngestListener {
+
+	private final LongAdder[] stageNanos = new LongAdder[IngestStage.values().length];
+	private final LongAdder[] stageCounts = new LongAdder[IngestStage.values().length];
+	private final LongAdder commitsWritten = new LongAdder();
+	private final LongAdder busyRetries = new LongAdder();
+	private final LongAccumulator maxQueueDepth = new LongAccumulator(Math::max, 0);
+	private final LongAccumulator maxBlameNanos = new LongAccumulator(Math::max, 0);
+	private final LongAdder ingestNanos = new LongAdder();
+	private volatile long startedAt;
+	private volatile int commitsPlanned;
+
+	public IngestMetrics() {
+		for (int i = 0; i < stageNanos.length; i++) {
+			stageNanos[i] = new LongAdder();
+			stageCounts[i] = new LongAdder();
+		}
+	}
+
+	@Override
+	public void ingestStarted(String repository, int commits) {
+		startedAt = System.nanoTime();
+		commitsPlanned = commits;
+	}
+
+	@Override
+	public void stageCompleted(IngestStage stage, String commit, long nanos) {
+		record(stage, nanos);
+	}
+
+	@Override
+	public void batchWritten(int commits, long nanos, int queueDepth) {
+		record(IngestStage.WRITE, nanos);
+		commitsWritten.add(commits);
+		maxQueueDepth.accumulate(queueDepth);
+	}
+
+	@Override
+	public void busyRetry(int attempt) {
+		busyRetries.increment();
+	}
+
+	@Override
+	public void fileBlamed(String path, long nanos) {
+		record(IngestStage.BLAME, nanos);
+		maxBlameNanos.accumulate(nanos);
+	}
+
+	@Override
+	public void ingestFinished(String repository, int commits, long nanos) {
+		ingestNanos.add(nanos);
+	}
+
+	private void record(IngestStage stage, long nanos) {
+		stageNanos[stage.ordinal()].add(nanos);
+		stageCounts[stage.ordinal()].increment();
+	}
+
+	public long getStageNanos(IngestStage stage) {
+		return stageNanos[stage.ordinal()].sum();
+	}
+
+	/**
+	 * @return Commits for the per-commit stages, batches for {@link IngestStage#WRITE}, files for
+	 * {@link IngestStage#BLAME}.
+	 */
+	public long getStageCount(IngestStage stage) {
+		return stageCounts[stage.ordinal()].sum();
+	}
+
+	public long getCommitsWritten() {
+		return commitsWritten.sum();
+	}
+
+	public int getCommitsPlanned() {
+		return commitsPlanned;
+	}
+
+	/**
+	 * @return Commits written per second of wall-clock time since the last ingest started.
+	 */
+	public double getCommitsPerSecond() {
+		long elapsed = startedAt == 0 ? 0 : System.nanoTime() - startedAt;
+		long finished = ingestNanos.sum();
+		if (finished > 0) elapsed = finished;
+		return elapsed == 0 ? 0 : getCommitsWritten() * (double) TimeUnit.SECONDS.toNanos(1) / elapsed;
+	}
+
+	public long getBusyRetries() {
+		return busyRetries.sum();
+	}
+
+	public long getMaxQueueDepth() {
+		return maxQueueDepth.get();
+	}
+
+	public double getMeanBlameMillis() {
+		long files = getStageCount(IngestStage.BLAME);
+		return files == 0 ? 0 : getStageNanos(IngestStage.BLAME) / 1e6 / files;
+	}
+
+	public double getMaxBlameMillis() {
+		return maxBlameNanos.get() / 1e6;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("IngestMetrics [");
+		for (IngestStage stage : IngestStage.values()) {
+			sb.append(stage.name().toLowerCase()).append('=')
+					.append(TimeUnit.NANOSECONDS.toMillis(getStageNanos(stage))).append("ms/")
+					.append(getStageCount(stage)).append(", ");
+		}
+		return sb.append("commits=").append(getCommitsWritten()).append('/').append(getCommitsPlanned())
+				.append(", commitsPerSecond=").append(String.format("%.1f", getCommitsPerSecond()))
+				.append(", maxQueueDepth=").append(getMaxQueueDepth())
+				.append(", busyRetries=").append(getBusyRetries())
+				.append(", maxBlameMs=").append(String.format("%.1f", getMaxBlameMillis()))
+				.append(']').toString();
+	}
+}
@@ -0,0 +1,17 @@
+package org.repodriller.scm.metrics;
+
+/**
+ * Timed stages of a repository ingest.
+ */
+public enum IngestStage {
+	/** Diffing a commit against its parent, see {@link org.repodriller.scm.CommitAnalysis}. */
+	DIFF,
+	/** Computing the project size of a commit. */
+	SIZE,
+	/** Computing the stability of a commit against the following month. */
+	STABILITY,
+	/** Writing a batch of commits to the database. */
+	WRITE,
+	/** Blaming one file. */
+	BLAME
+}
@@ -0,0 +1,157 @@
+package org.repodriller.scm.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Listener that turns ingest callbacks into JDK Flight Recorder events, so that a recording of a long ingest
+ * shows them next to GC and I/O activity.
+ *
+ * Per-commit stage events are disabled by default because there is one per commit and stage; enable
+ * {@code org.repodriller.IngestStage} in the recording settings to get them.
+ */
+public class JfrIngestListener implements IngestListener {
+
+	@Override
+	public void ingestStarted(String repository, int commits) {
+		IngestStartEvent event = new IngestStartEvent();
+		if (event.isEnabled()) {
+			event.repository = repository;
+			event.commits = commits;
+			event.commit();
+		}
+	}
+
+	@Override
+	public void stageCompleted(IngestStage stage, String commit, long nanos) {
+		IngestStageEvent event = new IngestStageEvent();
+		if (event.isEnabled()) {
+			event.stage = stage.name();
+			event.commit = commit;
+			event.elapsed = nanos;
+			event.commit();
+		}
+	}
+
+	@Override
+	public void batchWritten(int commits, long nanos, int queueDepth) {
+		CommitBatchEvent event = new CommitBatchEvent();
+		if (event.isEnabled()) {
+			event.commits = commits;
+			event.elapsed = nanos;
+			event.queueDepth = queueDepth;
+			event.commit();
+		}
+	}
+
+	@Override
+	public void busyRetry(int attempt) {
+		BusyRetryEvent event = new BusyRetryEvent();
+		if (event.isEnabled()) {
+			event.attempt = attempt;
+			event.commit();
+		}
+	}
+
+	@Override
+	public void fileBlamed(String path, long nanos) {
+		BlameFileEvent event = new BlameFileEvent();
+		if (event.isEnabled()) {
+			event.path = path;
+			event.elapsed = nanos;
+			event.commit();
+		}
+	}
+
+	@Override
+	public void ingestFinished(String repository, int commits, long nanos) {
+		IngestEndEvent event = new IngestEndEvent();
+		if (event.isEnabled()) {
+			event.repository = repository;
+			event.commits = commits;
+			event.elapsed = nanos;
+			event.commit();
+		}
+	}
+
+	@Name("org.repodriller.IngestStart")
+	@Label("Ingest Start")
+	@Category({"RepoDriller", "Ingest"})
+	@StackTrace(false)
+	static class IngestStartEvent extends Event {
+		@Label("Repository")
+		String repository;
+		@Label("Commits")
+		int commits;
+	}
+
+	@Name("org.repodriller.IngestStage")
+	@Label("Ingest Stage")
+	@Description("One commit finished one analysis stage")
+	@Category({"RepoDriller", "Ingest"})
+	@StackTrace(false)
+	@Enabled(false)
+	static class IngestStageEvent extends Event {
+		@Label("Stage")
+		String stage;
+		@Label("Commit")
+		String commit;
+		@Label("Elapsed")
+		@Timespan(Timespan.NANOSECONDS)
+		long elapsed;
+	}
+
+	@Name("org.repodriller.CommitBatch")
+	@Label("Commit Batch Written")
+	@Category({"RepoDriller", "Ingest"})
+	@StackTrace(false)
+	static class CommitBatchEvent extends Event {
+		@Label("Commits")
+		int commits;
+		@Label("Elapsed")
+		@Timespan(Timespan.NANOSECONDS)
+		long elapsed;
+		@Label("Queue Depth")
+		int queueDepth;
+	}
+
+	@Name("org.repodriller.BusyRetry")
+	@Label("SQLite Busy Retry")
+	@Category({"RepoDriller", "Database"})
+	static class BusyRetryEvent extends Event {
+		@Label("Attempt")
+		int attempt;
+	}
+
+	@Name("org.repodriller.BlameFile")
+	@Label("File Blamed")
+	@Category({"RepoDriller", "Blame"})
+	@StackTrace(false)
+	static class BlameFileEvent extends Event {
+		@Label("Path")
+		String path;
+		@Label("Elapsed")
+		@Timespan(Timespan.NANOSECONDS)
+		long elapsed;
+	}
+
+	@Name("org.repodriller.IngestEnd")
+	@Label("Ingest End")
+	@Category({"RepoDriller", "Ingest"})
+	@StackTrace(false)
+	static class IngestEndEvent extends Event {
+		@Label("Repository")
+		String repository;
+		@Label("Commits")
+		int commits;
+		@Label("Elapsed")
+		@Timespan(Timespan.NANOSECONDS)
+		long elapsed;
+	}
+}
@@ -0,0 +1,36 @@
+package org.repodriller.util
+
+/**
+ * Totals over every ingested commit of one author, kept in the AuthorStats table by the commit writer.
+ */
+data class AuthorStats(
+    val authorId: Long,
+    val authorName: String,
+    val authorEmail: String,
+    var commits: Long = 0,
+    var fileAdded: Long = 0,
+    var fileDeleted: Long = 0,
+    var fileModified: Long = 0,
+    var linesAdded: Long = 0,
+    var linesDeleted: Long = 0,
+    var linesModified: Long = 0,
+    var changes: Long = 0,
+    var changesSize: Long = 0,
+    var firstDate: Int = Int.MAX_VALUE,
+    var lastDate: Int = Int.MIN_VALUE
+) {
+
+    fun add(date: Int, fileEntity: FileEntity) {
+        commits++
+        fileAdded += fileEntity.fileAdded
+        fileDeleted += fileEntity.fileDeleted
+        fileModified += fileEntity.fileModified
+        linesAdded += fileEntity.linesAdded
+        linesDeleted += fileEntity.linesDeleted
+        linesModified += fileEntity.linesModified
+        changes += fileEntity.changes
+        changesSize += fileEntity.changesSize
+        firstDate = minOf(firstDate, date)
+        lastDate = maxOf(lastDate, date)
+    }
+}
@@ -0,0 +1,120 @@
+package org.repodriller.util
+
+import java.io.ByteArrayOutputStream
+import java.nio.ByteBuffer
+
+/**
+ * Lines of one file owned by one author, each with the commit it was last changed in.
+ *
+ * Stored in Blames.lineRanges as a BLOB: a format byte, the distinct source commits as raw 20-byte ids, then
+ * runs of consecutive lines with the same source commit. A run is three varints: the gap since the end of the
+ * previous run, its length minus one and the index of its commit. A file blamed to one commit is a few bytes
+ * whatever its length.
+ */
+class BlameLines {
+
+    private var lines = IntArray(16)
+    private var commitIndexes = IntArray(16)
+    private val commitIds = HashMap<String, Int>()
+    private val commits = ArrayList<String>()
+    var size = 0
+        private set
+
+    /**
+     * Lines must be added in ascending order.
+     */
+    fun add(line: Int, commit: String) {
+        require(size == 0 || line > lines[size - 1]) { "Lines must be added in ascending order: $line" }
+        if (size == lines.size) {
+            lines = lines.copyOf(size * 2)
+            commitIndexes = commitIndexes.copyOf(size * 2)
+        }
+        lines[size] = line
+        commitIndexes[size] = commitIds.getOrPut(commit) { commits.add(commit); commits.size - 1 }
+        size++
+    }
+
+    fun line(index: Int): Int = lines[index]
+
+    fun commit(index: Int): String = commits[commitIndexes[index]]
+
+    /**
+     * @return The distinct source commits, in order of first appearance.
+     */
+    fun commits(): List<String> = commits
+
+    fun encode(): ByteArray {
+        val out = ByteArrayOutputStream(24 + commits.size * 20 + size)
+        out.write(FORMAT)
+        writeVarint(out, commits.size)
+        val ids = ByteBuffer.allocate(commits.size * OBJECT_ID_LENGTH)
+        for (commit in commits) putObjectId(commit, ids)
+        out.write(ids.array())
+        var runs = 0
+        for (i in 0 until size) if (startsRun(i)) runs++
+        writeVarint(out, runs)
+        var end = 0
+        var start = 0
+        for (i in 0 until size) {
+            if (i == size - 1 || startsRun(i + 1)) {
+                writeVarint(out, lines[start] - end)
+                writeVarint(out, i - start)
+                writeVarint(out, commitIndexes[start])
+                end = lines[i] + 1
+                start = i + 1
+            }
+        }
+        return out.toByteArray()
+    }
+
+    private fun startsRun(i: Int) = i == 0 || lines[i] != lines[i - 1] + 1 || commitIndexes[i] != commitIndexes[i - 1]
+
+    companion object {
+        private const val FORMAT = 1
+
+        @JvmStatic
+        fun decode(bytes: ByteArray): BlameLines {
+            val reader = Reader(bytes)
+            val format = reader.byte()
+            require(format == FORMAT) { "Unknown blame line format $format" }
+            val commits = Array(reader.varint()) { reader.objectId() }
+            val result = BlameLines()
+            var end = 0
+            repeat(reader.varint()) {
+                val start = end + reader.varint()
+                end = start + reader.varint() + 1
+                val commit = commits[reader.varint()]
+                for (line in start until end) result.add(line, commit)
+            }
+            return result
+        }
+
+        private fun writeVarint(out: ByteArrayOutputStream, value: Int) {
+            var v = value
+            while (v and 0x7f.inv() != 0) {
+                out.write(v and 0x7f or 0x80)
+                v = v ushr 7
+            }
+            out.write(v)
+        }
+    }
+
+    private class Reader(private val bytes: ByteArray) {
+        private var position = 0
+
+        fun byte(): Int = bytes[position++].toInt() and 0xff
+
+        fun objectId(): String = getObjectId(ByteBuffer.wrap(bytes), position).also { position += OBJECT_ID_LENGTH }
+
+        fun varint(): Int {
+            var result = 0
+            var shift = 0
+            while (true) {
+                val b = byte()
+                result = result or (b and 0x7f shl shift)
+                if (b and 0x80 == 0) return result
+                shift += 7
+            }
+        }
+    }
+}
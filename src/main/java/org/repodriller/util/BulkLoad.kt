@@ -0,0 +1,214 @@
+package org.repodriller.util
+
+import java.sql.PreparedStatement
+
+/**
+ * First ingest of a project that has no commits yet, started by [DataBaseUtil.beginBulkLoad].
+ *
+ * [stage] appends batches to unindexed temp tables with multi-row INSERTs; authors and file paths get
+ * provisional negative ids in memory instead of a `RETURNING id` round trip per row. [finish] then moves
+ * everything into the real tables in one transaction: new authors and paths are numbered after the current
+ * maximum id, commits are inserted in key order, and the secondary indexes of Commits and Files are dropped and
+ * rebuilt when the load is at least as large as what those tables already hold. Nothing is visible to readers
+ * before [finish]; [close] without it discards the staged rows.
+ */
+class BulkLoad internal constructor(private val db: DataBaseUtil, val projectId: Int) : AutoCloseable {
+
+    private val commitsTable = "temp.BulkCommits_$projectId"
+    private val filesTable = "temp.BulkFiles_$projectId"
+    /* Existing rows keep their id, rows created by this load get -(index + 1) into newAuthors / newPaths. */
+    private val authors = HashMap<String, Long>()
+    private val newAuthors = ArrayList<Pair<String, String>>()
+    private val paths = HashMap<String, Long>()
+    private val newPaths = ArrayList<String>()
+    private var staged = 0L
+    private var open = true
+
+    init {
+        db.inTransaction {
+            db.conn.createStatement().use { stmt ->
+                stmt.execute("DROP TABLE IF EXISTS $commitsTable")
+                stmt.execute("DROP TABLE IF EXISTS $filesTable")
+                stmt.execute("CREATE TABLE $commitsTable(hash TEXT, date INTEGER, projectSize INTEGER, authorId INTEGER, stability REAL, filesAdded INTEGER, filesDeleted INTEGER, filesModified INTEGER, linesAdded INTEGER, linesDeleted INTEGER, linesModified INTEGER, changes INTEGER, changesSize INTEGER)")
+                stmt.execute("CREATE TABLE $filesTable(filePathId INTEGER, hash TEXT, date INTEGER)")
+            }
+            loadIds("SELECT email, id FROM Authors WHERE projectId = ?", authors)
+            loadIds("SELECT filePath, id FROM FilePath WHERE projectId = ?", paths)
+        }
+    }
+
+    /**
+     * Stage a batch of commits; called by the commit writer instead of [DataBaseUtil.insertCommitRecords].
+     */
+    @Synchronized
+    fun stage(records: List<CommitRecord>) {
+        check(open) { "Bulk load of project $projectId is closed" }
+        val authorIds = LongArray(records.size)
+        val filePathIds = ArrayList<Long>()
+        val fileRecords = ArrayList<CommitRecord>()
+        for ((i, record) in records.withIndex()) {
+            authorIds[i] = authors.getOrPut(record.authorEmail) {
+                newAuthors.add(record.authorName to record.authorEmail)
+                -newAuthors.size.toLong()
+            }
+            for (path in record.paths) {
+                filePathIds.add(paths.getOrPut(path) {
+                    newPaths.add(path)
+                    -newPaths.size.toLong()
+                })
+                fileRecords.add(record)
+            }
+        }
+        db.inTransaction {
+            insertRows("INSERT INTO $commitsTable VALUES", 13, records.size) { pstmt, row, p ->
+                val record = records[row]
+                val stats = record.fileEntity
+                pstmt.setString(p, record.hash)
+                pstmt.setInt(p + 1, record.date)
+                pstmt.setLong(p + 2, record.projectSize)
+                pstmt.setLong(p + 3, authorIds[row])
+                pstmt.setDouble(p + 4, record.stability)
+                pstmt.setInt(p + 5, stats.fileAdded)
+                pstmt.setInt(p + 6, stats.fileDeleted)
+                pstmt.setInt(p + 7, stats.fileModified)
+                pstmt.setInt(p + 8, stats.linesAdded)
+                pstmt.setInt(p + 9, stats.linesDeleted)
+                pstmt.setInt(p + 10, stats.linesModified)
+                pstmt.setInt(p + 11, stats.changes)
+                pstmt.setInt(p + 12, stats.changesSize)
+            }
+            insertRows("INSERT INTO $filesTable VALUES", 3, fileRecords.size) { pstmt, row, p ->
+                pstmt.setLong(p, filePathIds[row])
+                pstmt.setString(p + 1, fileRecords[row].hash)
+                pstmt.setInt(p + 2, fileRecords[row].date)
+            }
+        }
+        staged += records.size
+    }
+
+    /**
+     * Move the staged rows into the project. Fails, and leaves the database untouched, if the project has
+     * received commits since the load began.
+     */
+    @Synchronized
+    fun finish() {
+        check(open) { "Bulk load of project $projectId is closed" }
+        try {
+            db.inTransaction {
+                check(!db.hasCommits(projectId)) { "Project $projectId received commits during its bulk load" }
+                val authorBase = maxId("Authors")
+                insertRows("INSERT INTO Authors(id, name, email, projectId) VALUES", 4, newAuthors.size) { pstmt, row, p ->
+                    pstmt.setLong(p, authorBase + row + 1)
+                    pstmt.setString(p + 1, newAuthors[row].first)
+                    pstmt.setString(p + 2, newAuthors[row].second)
+                    pstmt.setInt(p + 3, projectId)
+                }
+                val directories = HashMap<String, Long>()
+                val dirIds = LongArray(newPaths.size) { i ->
+                    val directory = parentDirectory(newPaths[i])
+                    directories.getOrPut(directory) { ensureDirectory(db.conn, projectId, directory) }
+                }
+                val pathBase = maxId("FilePath")
+                insertRows("INSERT INTO FilePath(id, projectId, filePath, dirId) VALUES", 4, newPaths.size) { pstmt, row, p ->
+                    pstmt.setLong(p, pathBase + row + 1)
+                    pstmt.setInt(p + 1, projectId)
+                    pstmt.setString(p + 2, newPaths[row])
+                    pstmt.setLong(p + 3, dirIds[row])
+                }
+                db.conn.createStatement().use { stmt ->
+                    val rebuildIndexes = staged >= count("Commits")
+                    if (rebuildIndexes) SECONDARY_INDEXES.forEach { stmt.execute("DROP INDEX IF EXISTS $it") }
+                    /* Commit hashes are unique across projects, as in insertCommitRecords a known one is skipped. */
+                    stmt.execute("""
+                        INSERT OR IGNORE INTO Commits(projectId, authorId, hash, date, projectSize, stability, filesAdded, filesDeleted, filesModified, linesAdded, linesDeleted, linesModified, changes, changesSize)
+                        SELECT $projectId, CASE WHEN authorId < 0 THEN $authorBase - authorId ELSE authorId END, hash, date, projectSize, stability, filesAdded, filesDeleted, filesModified, linesAdded, linesDeleted, linesModified, changes, changesSize
+                        FROM $commitsTable ORDER BY hash
+                    """.trimIndent())
+                    stmt.execute("""
+                        INSERT INTO Files(projectId, filePathId, hash, date)
+                        SELECT DISTINCT $projectId, CASE WHEN f.filePathId < 0 THEN $pathBase - f.filePathId ELSE f.filePathId END, f.hash, f.date
+                        FROM $filesTable f JOIN Commits c ON c.hash = f.hash AND c.projectId = $projectId
+                    """.trimIndent())
+                    stmt.execute("""
+                        INSERT INTO AuthorStats(projectId, authorId, commits, filesAdded, filesDeleted, filesModified, linesAdded, linesDeleted, linesModified, changes, changesSize, firstDate, lastDate)
+                        SELECT projectId, authorId, COUNT(*), SUM(filesAdded), SUM(filesDeleted), SUM(filesModified), SUM(linesAdded), SUM(linesDeleted), SUM(linesModified), SUM(changes), SUM(changesSize), MIN(date), MAX(date)
+                        FROM Commits WHERE projectId = $projectId
+                        GROUP BY authorId
+                    """.trimIndent())
+                    if (rebuildIndexes) createIndexes(stmt)
+                }
+            }
+        } finally {
+            /* The dictionaries are reloaded with the final ids on their next use. */
+            db.forgetIds(projectId)
+            db.advanceGeneration(projectId)
+        }
+        close()
+    }
+
+    /** Drop the staging tables; the staged rows are lost unless [finish] ran first. */
+    @Synchronized
+    override fun close() {
+        if (!open) return
+        open = false
+        db.inTransaction {
+            db.conn.createStatement().use { stmt ->
+                stmt.execute("DROP TABLE IF EXISTS $commitsTable")
+                stmt.execute("DROP TABLE IF EXISTS $filesTable")
+            }
+        }
+    }
+
+    private fun loadIds(sql: String, ids: MutableMap<String, Long>) {
+        db.conn.prepareStatement(sql).use { pstmt ->
+            pstmt.setInt(1, projectId)
+            pstmt.executeQuery().use { rs ->
+                while (rs.next()) ids[rs.getString(1)] = rs.getLong(2)
+            }
+        }
+    }
+
+    private fun maxId(table: String): Long = db.conn.createStatement().use { stmt ->
+        stmt.executeQuery("SELECT COALESCE(MAX(id), 0) FROM $table").use { rs -> rs.next(); rs.getLong(1) }
+    }
+
+    private fun count(table: String): Long = db.conn.createStatement().use { stmt ->
+        stmt.executeQuery("SELECT COUNT(*) FROM $table").use { rs -> rs.next(); rs.getLong(1) }
+    }
+
+    /**
+     * Insert [rows] rows of [width] values with as few statements as SQLite's limits allow; [bind] sets the
+     * values of one row starting at parameter index `p`.
+     */
+    private fun insertRows(insert: String, width: Int, rows: Int, bind: (PreparedStatement, row: Int, p: Int) -> Unit) {
+        val perStatement = minOf(MAX_ROWS_PER_INSERT, MAX_VARIABLES / width)
+        val row = (1..width).joinToString(", ", "(", ")") { "?" }
+        var full: PreparedStatement? = null
+        try {
+            var start = 0
+            while (start < rows) {
+                val n = minOf(perStatement, rows - start)
+                val pstmt = if (n == perStatement) full ?: prepare(insert, row, n).also { full = it } else prepare(insert, row, n)
+                try {
+                    for (r in 0 until n) bind(pstmt, start + r, r * width + 1)
+                    pstmt.executeUpdate()
+                } finally {
+                    if (pstmt !== full) pstmt.close()
+                }
+                start += n
+            }
+        } finally {
+            full?.close()
+        }
+    }
+
+    private fun prepare(insert: String, row: String, rows: Int): PreparedStatement =
+        db.conn.prepareStatement(List(rows) { row }.joinToString(", ", "$insert ", ""))
+
+    private companion object {
+        const val MAX_ROWS_PER_INSERT = 500
+        /* SQLITE_MAX_VARIABLE_NUMBER of the bundled SQLite. */
+        const val MAX_VARIABLES = 32766
+        val SECONDARY_INDEXES = listOf("idx_Files_projectId_filePathId", "idx_Files_hash", "idx_Commits_projectId_date", "idx_Commits_authorId_date")
+    }
+}
@@ -0,0 +1,82 @@
+package org.repodriller.util
+
+import java.nio.ByteBuffer
+import java.nio.DoubleBuffer
+import java.nio.IntBuffer
+import java.nio.LongBuffer
+
+/**
+ * A read-only snapshot of the numeric commit columns of one project, indexed by commit ordinal.
+ *
+ * The buffers may be views of memory-mapped files: read them with absolute gets and do not keep them after the
+ * store is closed.
+ */
+class CommitColumns(
+    val size: Int,
+    private val hashes: ByteBuffer,
+    val date: IntBuffer,
+    val projectSize: LongBuffer,
+    val stability: DoubleBuffer,
+    val filesAdded: IntBuffer,
+    val filesDeleted: IntBuffer,
+    val filesModified: IntBuffer,
+    val linesAdded: IntBuffer,
+    val linesDeleted: IntBuffer,
+    val linesModified: IntBuffer,
+    val changes: IntBuffer,
+    val changesSize: IntBuffer,
+) {
+
+    fun hash(ordinal: Int): String = getObjectId(hashes, ordinal * OBJECT_ID_LENGTH)
+
+    /**
+     * @return The ordinals of the commits dated in [[fromDate], [toDate]), in ordinal order.
+     */
+    fun ordinalsBetween(fromDate: Int, toDate: Int): IntArray {
+        val result = IntArray(size)
+        var count = 0
+        for (i in 0 until size) {
+            val d = date.get(i)
+            if (d >= fromDate && d < toDate) result[count++] = i
+        }
+        return result.copyOf(count)
+    }
+
+    /**
+     * Heap columns with room for [capacity] commits, filled with [append] and trimmed by [build].
+     */
+    internal class Builder(capacity: Int) {
+        private var hashes = ByteBuffer.allocate(capacity * OBJECT_ID_LENGTH)
+        private val ints = Array(9) { IntArray(capacity) }
+        private var projectSize = LongArray(capacity)
+        private var stability = DoubleArray(capacity)
+        private var size = 0
+
+        fun append(hash: String, date: Int, projectSize: Long, stability: Double, fileEntity: FileEntity) {
+            if (size == this.projectSize.size) grow()
+            putObjectId(hash, hashes)
+            val values = intArrayOf(date, fileEntity.fileAdded, fileEntity.fileDeleted, fileEntity.fileModified,
+                fileEntity.linesAdded, fileEntity.linesDeleted, fileEntity.linesModified, fileEntity.changes, fileEntity.changesSize)
+            for (c in values.indices) ints[c][size] = values[c]
+            this.projectSize[size] = projectSize
+            this.stability[size] = stability
+            size++
+        }
+
+        private fun grow() {
+            val capacity = maxOf(16, size * 2)
+            hashes = ByteBuffer.allocate(capacity * OBJECT_ID_LENGTH).put(hashes.flip())
+            for (c in ints.indices) ints[c] = ints[c].copyOf(capacity)
+            projectSize = projectSize.copyOf(capacity)
+            stability = stability.copyOf(capacity)
+        }
+
+        fun build(): CommitColumns {
+            fun column(c: Int) = IntBuffer.wrap(ints[c], 0, size).slice().asReadOnlyBuffer()
+            return CommitColumns(size, hashes.duplicate().flip().asReadOnlyBuffer(), column(0),
+                LongBuffer.wrap(projectSize, 0, size).slice().asReadOnlyBuffer(),
+                DoubleBuffer.wrap(stability, 0, size).slice().asReadOnlyBuffer(),
+                column(1), column(2), column(3), column(4), column(5), column(6), column(7), column(8))
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package org.repodriller.util
+
+import java.sql.PreparedStatement
+import java.sql.ResultSet
+import java.util.Spliterator
+import java.util.Spliterators
+import java.util.stream.Stream
+import java.util.stream.StreamSupport
+
+/**
+ * Forward-only iteration over commits, backed by one ResultSet on a connection borrowed from the pool.
+ *
+ * Rows are read as the caller advances, so memory does not grow with the number of commits. The connection is
+ * only handed back by [close], which also happens once the last row has been read: use the cursor in a
+ * use/try-with-resources block, or close the Stream returned by [stream]. An open cursor keeps a read
+ * transaction open, which stops WAL checkpoints from completing.
+ */
+class CommitCursor internal constructor(
+    private val connections: ConnectionManager,
+    private val connection: ConnectionManager.PooledConnection,
+    private val statement: PreparedStatement,
+) : Iterator<CommitEntity>, AutoCloseable {
+
+    private val rs: ResultSet
+    private var ready: Boolean? = null
+    private var closed = false
+
+    init {
+        try {
+            rs = statement.executeQuery()
+        } catch (e: Exception) {
+            statement.close()
+            connections.release(connection)
+            throw e
+        }
+    }
+
+    override fun hasNext(): Boolean {
+        if (closed) return false
+        val next = ready ?: rs.next().also { ready = it }
+        if (!next) close()
+        return next
+    }
+
+    override fun next(): CommitEntity {
+        if (!hasNext()) throw NoSuchElementException()
+        ready = null
+        return readCommitEntity(rs)
+    }
+
+    fun stream(): Stream<CommitEntity> =
+        StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED or Spliterator.NONNULL), false)
+            .onClose(::close)
+
+    override fun close() {
+        if (closed) return
+        closed = true
+        try {
+            rs.close()
+            statement.close()
+        } finally {
+            connections.release(connection)
+        }
+    }
+
+    companion object {
+        const val DEFAULT_FETCH_SIZE = 1000
+    }
+}
+
+/**
+ * Maps the current row of a `SELECT c.*, a.email AS authorEmail, a.name AS authorName` query over Commits.
+ */
+internal fun readCommitEntity(rs: ResultSet) = CommitEntity(
+    projectId = rs.getInt("projectId"),
+    authorId = rs.getLong("authorId"),
+    authorName = rs.getString("authorName"),
+    authorEmail = rs.getString("authorEmail"),
+    hash = rs.getString("hash"),
+    date = rs.getInt("date"),
+    projectSize = rs.getLong("projectSize"),
+    stability = rs.getDouble("stability"),
+    fileEntity = FileEntity(
+        fileAdded = rs.getInt("filesAdded"),
+        fileDeleted = rs.getInt("filesDeleted"),
+        fileModified = rs.getInt("filesModified"),
+        linesAdded = rs.getInt("linesAdded"),
+        linesDeleted = rs.getInt("linesDeleted"),
+        linesModified = rs.getInt("linesModified"),
+        changes = rs.getInt("changes"),
+        changesSize = rs.getInt("changesSize")
+    )
+)
@@ -0,0 +1,12 @@
+package org.repodriller.util
+
+data class CommitRecord(
+    val hash: String,
+    val date: Int,
+    val authorName: String,
+    val authorEmail: String,
+    val projectSize: Long,
+    val stability: Double,
+    val fileEntity: FileEntity,
+    val paths: Collection<String>
+)
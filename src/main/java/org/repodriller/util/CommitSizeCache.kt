@@ -0,0 +1,73 @@
+package org.repodriller.util
+
+import org.repodriller.scm.entities.CommitSize
+import java.util.Collections
+import java.util.concurrent.atomic.LongAdder
+
+/**
+ * Results of [DataBaseUtil.getCommitSizeMap] by project and path, bounded by the total number of commits held.
+ *
+ * Every entry records the project generation it was read at (see [DataBaseUtil.generation]); once the commit
+ * writer stores new data the generation moves on and older entries are reloaded on their next use. The least
+ * recently used entries are evicted first. Cached maps are shared between callers and must not be modified.
+ */
+class CommitSizeCache @JvmOverloads constructor(private val maxCommits: Long = DEFAULT_MAX_COMMITS) {
+
+    private data class Key(val projectId: Int, val path: String)
+
+    private class Entry(val generation: Long, val commits: Map<String, CommitSize>)
+
+    private val entries = LinkedHashMap<Key, Entry>(16, 0.75f, true)
+    private var weight = 0L
+    private val hits = LongAdder()
+    private val misses = LongAdder()
+    private val evictions = LongAdder()
+
+    /**
+     * @return The cached commits of [path] if they were read at [generation], otherwise the result of [load].
+     */
+    fun get(projectId: Int, path: String, generation: Long, load: () -> Map<String, CommitSize>): Map<String, CommitSize> {
+        val key = Key(projectId, path)
+        synchronized(this) {
+            val entry = entries[key]
+            if (entry != null && entry.generation == generation) {
+                hits.increment()
+                return entry.commits
+            }
+        }
+        misses.increment()
+        /* Loaded outside the lock; two callers may load the same key, the later one wins. */
+        val commits = Collections.unmodifiableMap(load())
+        if (commits.size >= maxCommits) return commits
+        synchronized(this) {
+            val previous = entries.put(key, Entry(generation, commits))
+            if (previous != null) weight -= weigh(previous.commits)
+            weight += weigh(commits)
+            val eldest = entries.values.iterator()
+            while (weight > maxCommits && eldest.hasNext()) {
+                weight -= weigh(eldest.next().commits)
+                eldest.remove()
+                evictions.increment()
+            }
+        }
+        return commits
+    }
+
+    @Synchronized
+    fun clear() {
+        entries.clear()
+        weight = 0
+    }
+
+    fun getHits(): Long = hits.sum()
+
+    fun getMisses(): Long = misses.sum()
+
+    fun getEvictions(): Long = evictions.sum()
+
+    private fun weigh(commits: Map<String, CommitSize>): Long = commits.size + 1L
+
+    companion object {
+        const val DEFAULT_MAX_COMMITS = 200_000L
+    }
+}
@@ -0,0 +1,23 @@
+package org.repodriller.util
+
+/**
+ * Storage for the numeric columns of commits, read by dashboards that never need the rest of a Commits row.
+ *
+ * Commits get a dense ordinal in the order they are appended. [SqliteCommitStatsStore] reads the Commits table
+ * and is the default; [MappedCommitStatsStore] keeps the columns in memory-mapped files so that scans and
+ * aggregates run over primitive buffers without copying.
+ */
+interface CommitStatsStore : AutoCloseable {
+
+    /**
+     * Store the columns of [records] that are not stored yet. Called by the commit writer after each batch.
+     */
+    fun append(projectId: Int, records: List<CommitRecord>)
+
+    /**
+     * @return The columns of every commit of a project stored so far.
+     */
+    fun columns(projectId: Int): CommitColumns
+
+    override fun close() {}
+}
@@ -0,0 +1,105 @@
+package org.repodriller.util
+
+import java.sql.Connection
+import java.sql.DriverManager
+import java.sql.PreparedStatement
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.locks.ReentrantLock
+
+/**
+ * Connections to one SQLite database: a single write connection guarded by [writeLock] and a pool of up to
+ * [maxReaders] read-only connections, all configured with the same [PragmaProfile].
+ *
+ * Each connection caches its prepared statements, so callers must not close the statements they get from
+ * [PooledConnection.prepare]; they are closed together with the manager. A thread that holds [writeLock] reads
+ * through the write connection, so it sees its own uncommitted changes.
+ */
+class ConnectionManager(
+    private val url: String,
+    private val profile: PragmaProfile = PragmaProfile.DEFAULT,
+    private val maxReaders: Int = DEFAULT_READERS,
+) : AutoCloseable {
+
+    val writeLock = ReentrantLock()
+    val writer: PooledConnection = PooledConnection(open(readOnly = false))
+
+    private val idleReaders = LinkedBlockingQueue<PooledConnection>()
+    private val allReaders = LinkedBlockingQueue<PooledConnection>()
+    private val openedReaders = AtomicInteger()
+
+    /**
+     * Borrow a connection for reading; hand it back with [release]. Falls back to the write connection, taking
+     * [writeLock], when the current thread already writes or there are no readers.
+     */
+    fun acquireReader(): PooledConnection {
+        if (writeLock.isHeldByCurrentThread || maxReaders <= 0) {
+            writeLock.lock()
+            return writer
+        }
+        idleReaders.poll()?.let { return it }
+        if (openedReaders.incrementAndGet() <= maxReaders) {
+            return PooledConnection(open(readOnly = true)).also { allReaders.add(it) }
+        }
+        openedReaders.decrementAndGet()
+        return idleReaders.take()
+    }
+
+    fun release(connection: PooledConnection) {
+        if (connection === writer) {
+            writeLock.unlock()
+        } else {
+            idleReaders.add(connection)
+        }
+    }
+
+    private fun open(readOnly: Boolean): Connection {
+        val conn = DriverManager.getConnection("jdbc:sqlite:$url")
+        profile.apply(conn, readOnly)
+        return conn
+    }
+
+    override fun close() {
+        writeLock.lock()
+        try {
+            allReaders.forEach { it.close() }
+            allReaders.clear()
+            idleReaders.clear()
+            writer.close()
+        } finally {
+            writeLock.unlock()
+        }
+    }
+
+    class PooledConnection(val connection: Connection) : AutoCloseable {
+        private val statements = object : LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+            override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, PreparedStatement>): Boolean {
+                if (size > MAX_CACHED_STATEMENTS) {
+                    eldest.value.close()
+                    return true
+                }
+                return false
+            }
+        }
+
+        /**
+         * @return A cached statement for [sql] with its parameters cleared. Do not close it.
+         */
+        fun prepare(sql: String): PreparedStatement {
+            val stmt = statements.getOrPut(sql) { connection.prepareStatement(sql) }
+            stmt.clearParameters()
+            return stmt
+        }
+
+        override fun close() {
+            statements.values.forEach { it.close() }
+            statements.clear()
+            connection.close()
+        }
+    }
+
+    companion object {
+        const val DEFAULT_READERS = 4
+        const val MAX_CACHED_STATEMENTS = 64
+    }
+}
@@ -1,9 +1,13 @@
 package org.repodriller.util
 
+import com.fasterxml.jackson.databind.ObjectMapper
 import java.sql.Connection
 import java.sql.DriverManager
 import java.sql.PreparedStatement
 import java.sql.SQLException
+import java.sql.Statement
+import java.util.Base64
+import java.util.zip.GZIPInputStream
 
 private fun allTablesExist(conn: Connection, tableNames: List<String>): Boolean {
     val meta = conn.metaData
@@ -30,125 +34,236 @@ private fun allTablesExist(conn: Connection, tableNames: List<String>): Boolean
     return true
 }
 
-fun createTables(conn: Connection) {
-    // SQL statement for creating tables
-
-    val sqlCreateProjects = """
-        CREATE TABLE IF NOT EXISTS Projects (
-            id INTEGER PRIMARY KEY AUTOINCREMENT,
-            name TEXT NOT NULL,
-            filePath TEXT NOT NULL,
-            UNIQUE (name, filePath) 
-        );
-    """.trimIndent()
-
-    val sqlCreateAuthors = """
-        CREATE TABLE IF NOT EXISTS Authors (
-            id INTEGER PRIMARY KEY,
-            name TEXT NOT NULL,
-            email TEXT NOT NULL,
-            projectId INTEGER NOT NULL,
-            FOREIGN KEY (projectId) REFERENCES Projects(id),
-            UNIQUE (email, projectId) 
-        );
-    """.trimIndent()
-
-    val sqlCreateCommits = """
-        CREATE TABLE IF NOT EXISTS Commits (
-            hash TEXT PRIMARY KEY,
-            date INTEGER NOT NULL,
-            projectSize LONG,
-            projectId INTEGER NOT NULL,
-            authorId TEXT NOT NULL,
-            stability DOUBLE NOT NULL,
-            filesAdded INTEGER NOT NULL,
-            filesDeleted INTEGER NOT NULL,
-            filesModified INTEGER NOT NULL,
-            linesAdded INTEGER NOT NULL,
-            linesDeleted INTEGER NOT NULL,
-            linesModified INTEGER NOT NULL,
-            changes INTEGER NOT NULL,
-            changesSize INTEGER NOT NULL,
-            FOREIGN KEY (projectId) REFERENCES Projects(id),
-            FOREIGN KEY (authorId) REFERENCES Authors(id),
-            UNIQUE (hash, projectId)
-        );
-    """.trimIndent()
-
-    val sqlCreateFiles = """
-        CREATE TABLE IF NOT EXISTS Files (
-            id INTEGER PRIMARY KEY AUTOINCREMENT,
-            projectId INTEGER NOT NULL,
-            filePathId INTEGER NOT NULL,
-            hash TEXT,
-            date INTEGER NOT NULL,
-            FOREIGN KEY (projectId) REFERENCES Projects(id),
-            FOREIGN KEY (filePathId) REFERENCES FilePath(id),
-            FOREIGN KEY (hash) REFERENCES Commits(hash)
-        );
-    """.trimIndent()
-
-    val sqlCreateFilePath = """
-        CREATE TABLE IF NOT EXISTS FilePath (
-            id INTEGER PRIMARY KEY,
-            projectId INTEGER NOT NULL,
-            filePath TEXT NOT NULL,
-            FOREIGN KEY (projectId) REFERENCES Projects(id),
-            UNIQUE (projectId, filePath)
-        );
-    """.trimIndent()
-
-    val sqlCreateChanges = """
-        CREATE TABLE IF NOT EXISTS Changes (
-            id INTEGER PRIMARY KEY AUTOINCREMENT,
-            hash TEXT NOT NULL,
-            authorId TEXT NOT NULL,
-            projectId INTEGER NOT NULL,
-            changesCount INTEGER NOT NULL,
-            changesSize INTEGER NOT NULL,
-            linesAdded INTEGER NOT NULL,
-            linesModified INTEGER NOT NULL,
-            fileAdded INTEGER NOT NULL,
-            fileDeleted INTEGER NOT NULL,
-            fileModified INTEGER NOT NULL,
-            FOREIGN KEY (hash) REFERENCES Commits(hash),
-            FOREIGN KEY (projectId) REFERENCES Projects(id),
-            FOREIGN KEY (authorId) REFERENCES Authors(id),
-            UNIQUE (projectId, authorId, hash) 
-        );
-    """.trimIndent()
-
-    val sqlCreateBlameFiles = """
-        CREATE TABLE IF NOT EXISTS BlameFiles (
-            id INTEGER PRIMARY KEY AUTOINCREMENT,
-            projectId TEXT NOT NULL,
-            filePathId TEXT NOT NULL,
-            fileHash TEXT NOT NULL,
-            lineSize LONG,
-            FOREIGN KEY (projectId) REFERENCES Projects(id),
-            FOREIGN KEY (filePathId) REFERENCES FilePath(id),
-            FOREIGN KEY (fileHash) REFERENCES Commits(hash),
-            UNIQUE (projectId, filePathId, fileHash) 
-        );
-    """.trimIndent()
-
-    val sqlCreateBlame = """
-        CREATE TABLE IF NOT EXISTS Blames (
-            id INTEGER PRIMARY KEY AUTOINCREMENT,
-            projectId INT NOT NULL,
-            authorId TEXT NOT NULL,
-            blameFileId INT NOT NULL,
-            blameHashes TEXT NOT NULL,
-            lineIds TEXT NOT NULL,
-            lineCounts LONG NOT NULL,
-            lineSize LONG NOT NULL,
-            FOREIGN KEY (projectId) REFERENCES Projects(id),
-            FOREIGN KEY (blameHashes) REFERENCES Commits(hash),
-            FOREIGN KEY (authorId) REFERENCES Authors(id),
-            UNIQUE (projectId, authorId, BlameFileId) 
-        );
-    """.trimIndent()
+private val sqlCreateProjects = """
+    CREATE TABLE IF NOT EXISTS Projects (
+        id INTEGER PRIMARY KEY AUTOINCREMENT,
+        name TEXT NOT NULL,
+        filePath TEXT NOT NULL,
+        UNIQUE (name, filePath) 
+    );
+""".trimIndent()
+
+private val sqlCreateProjectRefs = """
+    CREATE TABLE IF NOT EXISTS ProjectRefs (
+        projectId INTEGER NOT NULL,
+        ref TEXT NOT NULL,
+        tip TEXT NOT NULL,
+        FOREIGN KEY (projectId) REFERENCES Projects(id),
+        UNIQUE (projectId, ref)
+    );
+""".trimIndent()
+
+private val sqlCreateAuthors = """
+    CREATE TABLE IF NOT EXISTS Authors (
+        id INTEGER PRIMARY KEY,
+        name TEXT NOT NULL,
+        email TEXT NOT NULL,
+        projectId INTEGER NOT NULL,
+        FOREIGN KEY (projectId) REFERENCES Projects(id),
+        UNIQUE (email, projectId) 
+    );
+""".trimIndent()
+
+private val sqlCreateCommits = """
+    CREATE TABLE IF NOT EXISTS Commits (
+        hash TEXT PRIMARY KEY,
+        date INTEGER NOT NULL,
+        projectSize LONG,
+        projectId INTEGER NOT NULL,
+        authorId INTEGER NOT NULL,
+        stability DOUBLE NOT NULL,
+        filesAdded INTEGER NOT NULL,
+        filesDeleted INTEGER NOT NULL,
+        filesModified INTEGER NOT NULL,
+        linesAdded INTEGER NOT NULL,
+        linesDeleted INTEGER NOT NULL,
+        linesModified INTEGER NOT NULL,
+        changes INTEGER NOT NULL,
+        changesSize INTEGER NOT NULL,
+        FOREIGN KEY (projectId) REFERENCES Projects(id),
+        FOREIGN KEY (authorId) REFERENCES Authors(id),
+        UNIQUE (hash, projectId)
+    );
+""".trimIndent()
+
+private val sqlCreateFiles = """
+    CREATE TABLE IF NOT EXISTS Files (
+        id INTEGER PRIMARY KEY AUTOINCREMENT,
+        projectId INTEGER NOT NULL,
+        filePathId INTEGER NOT NULL,
+        hash TEXT,
+        date INTEGER NOT NULL,
+        FOREIGN KEY (projectId) REFERENCES Projects(id),
+        FOREIGN KEY (filePathId) REFERENCES FilePath(id),
+        FOREIGN KEY (hash) REFERENCES Commits(hash)
+    );
+""".trimIndent()
+
+private val sqlCreateFilePath = """
+    CREATE TABLE IF NOT EXISTS FilePath (
+        id INTEGER PRIMARY KEY,
+        projectId INTEGER NOT NULL,
+        filePath TEXT NOT NULL,
+        dirId INTEGER,
+        FOREIGN KEY (projectId) REFERENCES Projects(id),
+        FOREIGN KEY (dirId) REFERENCES Directories(id),
+        UNIQUE (projectId, filePath)
+    );
+""".trimIndent()
+
+private val sqlCreateChanges = """
+    CREATE TABLE IF NOT EXISTS Changes (
+        id INTEGER PRIMARY KEY AUTOINCREMENT,
+        hash TEXT NOT NULL,
+        authorId INTEGER NOT NULL,
+        projectId INTEGER NOT NULL,
+        changesCount INTEGER NOT NULL,
+        changesSize INTEGER NOT NULL,
+        linesAdded INTEGER NOT NULL,
+        linesModified INTEGER NOT NULL,
+        fileAdded INTEGER NOT NULL,
+        fileDeleted INTEGER NOT NULL,
+        fileModified INTEGER NOT NULL,
+        FOREIGN KEY (hash) REFERENCES Commits(hash),
+        FOREIGN KEY (projectId) REFERENCES Projects(id),
+        FOREIGN KEY (authorId) REFERENCES Authors(id),
+        UNIQUE (projectId, authorId, hash) 
+    );
+""".trimIndent()
+
+private val sqlCreateBlameFiles = """
+    CREATE TABLE IF NOT EXISTS BlameFiles (
+        id INTEGER PRIMARY KEY AUTOINCREMENT,
+        projectId INTEGER NOT NULL,
+        filePathId INTEGER NOT NULL,
+        fileHash TEXT NOT NULL,
+        lineSize LONG,
+        sourceId INTEGER,
+        FOREIGN KEY (projectId) REFERENCES Projects(id),
+        FOREIGN KEY (filePathId) REFERENCES FilePath(id),
+        FOREIGN KEY (fileHash) REFERENCES Commits(hash),
+        FOREIGN KEY (sourceId) REFERENCES BlameFiles(id),
+        UNIQUE (projectId, filePathId, fileHash) 
+    );
+""".trimIndent()
+
+private val sqlCreateBlame = """
+    CREATE TABLE IF NOT EXISTS Blames (
+        id INTEGER PRIMARY KEY AUTOINCREMENT,
+        projectId INT NOT NULL,
+        authorId INTEGER NOT NULL,
+        blameFileId INT NOT NULL,
+        lineRanges BLOB NOT NULL,
+        lineCounts LONG NOT NULL,
+        lineSize LONG NOT NULL,
+        FOREIGN KEY (projectId) REFERENCES Projects(id),
+        FOREIGN KEY (authorId) REFERENCES Authors(id),
+        UNIQUE (projectId, authorId, BlameFileId) 
+    );
+""".trimIndent()
+
+private val sqlCreateDirectories = """
+    CREATE TABLE IF NOT EXISTS Directories (
+        id INTEGER PRIMARY KEY AUTOINCREMENT,
+        projectId INTEGER NOT NULL,
+        parentId INTEGER,
+        path TEXT NOT NULL,
+        FOREIGN KEY (projectId) REFERENCES Projects(id),
+        FOREIGN KEY (parentId) REFERENCES Directories(id),
+        UNIQUE (projectId, path)
+    );
+""".trimIndent()
 
+private val sqlCreateDirectoryClosure = """
+    CREATE TABLE IF NOT EXISTS DirectoryClosure (
+        ancestorId INTEGER NOT NULL,
+        descendantId INTEGER NOT NULL,
+        depth INTEGER NOT NULL,
+        PRIMARY KEY (ancestorId, descendantId),
+        FOREIGN KEY (ancestorId) REFERENCES Directories(id),
+        FOREIGN KEY (descendantId) REFERENCES Directories(id)
+    ) WITHOUT ROWID;
+""".trimIndent()
+
+private val sqlCreateAuthorStats = """
+    CREATE TABLE IF NOT EXISTS AuthorStats (
+        projectId INTEGER NOT NULL,
+        authorId INTEGER NOT NULL,
+        commits INTEGER NOT NULL,
+        filesAdded INTEGER NOT NULL,
+        filesDeleted INTEGER NOT NULL,
+        filesModified INTEGER NOT NULL,
+        linesAdded INTEGER NOT NULL,
+        linesDeleted INTEGER NOT NULL,
+        linesModified INTEGER NOT NULL,
+        changes INTEGER NOT NULL,
+        changesSize INTEGER NOT NULL,
+        firstDate INTEGER NOT NULL,
+        lastDate INTEGER NOT NULL,
+        PRIMARY KEY (projectId, authorId),
+        FOREIGN KEY (projectId) REFERENCES Projects(id),
+        FOREIGN KEY (authorId) REFERENCES Authors(id)
+    ) WITHOUT ROWID;
+""".trimIndent()
+
+private val sqlCreateBlameHeads = """
+    CREATE TABLE IF NOT EXISTS BlameHeads (
+        projectId INTEGER NOT NULL,
+        headHash TEXT NOT NULL,
+        seq INTEGER NOT NULL,
+        PRIMARY KEY (projectId, headHash),
+        FOREIGN KEY (projectId) REFERENCES Projects(id)
+    ) WITHOUT ROWID;
+""".trimIndent()
+
+private val sqlCreateBlameSnapshots = """
+    CREATE TABLE IF NOT EXISTS BlameSnapshots (
+        projectId INTEGER NOT NULL,
+        filePathId INTEGER NOT NULL,
+        commitId BLOB NOT NULL,
+        followRenames INTEGER NOT NULL,
+        usedSeq INTEGER NOT NULL,
+        data BLOB NOT NULL,
+        PRIMARY KEY (projectId, filePathId, commitId, followRenames),
+        FOREIGN KEY (projectId) REFERENCES Projects(id),
+        FOREIGN KEY (filePathId) REFERENCES FilePath(id)
+    );
+""".trimIndent()
+
+private val sqlCreateOwnershipHeads = """
+    CREATE TABLE IF NOT EXISTS OwnershipHeads (
+        projectId INTEGER PRIMARY KEY,
+        headHash TEXT NOT NULL,
+        FOREIGN KEY (projectId) REFERENCES Projects(id)
+    );
+""".trimIndent()
+
+private val sqlCreateOwnershipFiles = """
+    CREATE TABLE IF NOT EXISTS OwnershipFiles (
+        projectId INTEGER NOT NULL,
+        filePathId INTEGER NOT NULL,
+        data BLOB NOT NULL,
+        PRIMARY KEY (projectId, filePathId),
+        FOREIGN KEY (projectId) REFERENCES Projects(id),
+        FOREIGN KEY (filePathId) REFERENCES FilePath(id)
+    );
+""".trimIndent()
+
+private val sqlCreateLineOwners = """
+    CREATE TABLE IF NOT EXISTS LineOwners (
+        projectId INTEGER NOT NULL,
+        filePathId INTEGER NOT NULL,
+        authorId INTEGER NOT NULL,
+        lineCount INTEGER NOT NULL,
+        lineSize INTEGER NOT NULL,
+        PRIMARY KEY (projectId, filePathId, authorId),
+        FOREIGN KEY (projectId) REFERENCES Projects(id),
+        FOREIGN KEY (filePathId) REFERENCES FilePath(id),
+        FOREIGN KEY (authorId) REFERENCES Authors(id)
+    ) WITHOUT ROWID;
+""".trimIndent()
+
+fun createTables(conn: Connection) {
 //    if (!allTablesExist(conn, listOf("Projects", "Authors", "Commits", "Files", "Changes", "BlameFiles", "Blames"))) {
 //        conn.createStatement().use { stmt ->
 //            stmt.execute(sqlCreateProjects)
@@ -163,8 +278,11 @@ fun createTables(conn: Connection) {
 //    }
 
     try {
+        /* A new database is created at the current version; only existing ones go through the migrations. */
+        val fresh = !tableExists(conn, "Projects")
         conn.createStatement().use { stmt ->
             stmt.execute(sqlCreateProjects)
+            stmt.execute(sqlCreateProjectRefs)
             stmt.execute(sqlCreateAuthors)
             stmt.execute(sqlCreateCommits)
             stmt.execute(sqlCreateFiles)
@@ -172,15 +290,327 @@ fun createTables(conn: Connection) {
 //            stmt.execute(sqlCreateChanges)
             stmt.execute(sqlCreateBlameFiles)
             stmt.execute(sqlCreateBlame)
+            stmt.execute(sqlCreateDirectories)
+            stmt.execute(sqlCreateDirectoryClosure)
+            stmt.execute(sqlCreateAuthorStats)
+            stmt.execute(sqlCreateBlameHeads)
+            stmt.execute(sqlCreateBlameSnapshots)
+            stmt.execute(sqlCreateOwnershipHeads)
+            stmt.execute(sqlCreateOwnershipFiles)
+            stmt.execute(sqlCreateLineOwners)
+            if (fresh) stmt.execute("PRAGMA user_version = $SCHEMA_VERSION")
             println("Tables have been created.")
         }
+        migrate(conn)
+        conn.createStatement().use { stmt -> createIndexes(stmt) }
     } catch (e: SQLException) {
         println(e.message)
     }
 }
 
+/** Schema version this code expects, stored in PRAGMA user_version. */
+const val SCHEMA_VERSION = 9
+
+/**
+ * Bring a database created by an older version up to [SCHEMA_VERSION]. Step `n` upgrades from version `n` to
+ * `n + 1` and runs in its own transaction together with the version bump.
+ */
+private val migrations: List<(Connection) -> Unit> = listOf(
+    ::migrateToDirectories,
+    ::migrateToDenseIds,
+    ::migrateToBlameLines,
+    ::migrateToAuthorStats,
+    ::migrateToBlameHeads,
+    ::migrateToBlameSources,
+    ::migrateToBlameSnapshots,
+    ::migrateToLineOwnership,
+    ::migrateToCompactBlameSnapshots,
+)
+
+fun migrate(conn: Connection) {
+    var version = conn.createStatement().use { stmt ->
+        stmt.executeQuery("PRAGMA user_version").use { rs -> if (rs.next()) rs.getInt(1) else 0 }
+    }
+    while (version < SCHEMA_VERSION) {
+        val autoCommit = conn.autoCommit
+        conn.autoCommit = false
+        try {
+            migrations[version](conn)
+            version++
+            conn.createStatement().use { stmt -> stmt.execute("PRAGMA user_version = $version") }
+            conn.commit()
+        } catch (e: Exception) {
+            conn.rollback()
+            throw e
+        } finally {
+            conn.autoCommit = autoCommit
+        }
+    }
+}
+
+/**
+ * Version 1: directories as rows with parent links and a closure table, and FilePath.dirId.
+ */
+private fun migrateToDirectories(conn: Connection) {
+    conn.createStatement().use { stmt ->
+        stmt.execute(sqlCreateDirectories)
+        stmt.execute(sqlCreateDirectoryClosure)
+        if (!hasColumn(conn, "FilePath", "dirId")) {
+            stmt.execute("ALTER TABLE FilePath ADD COLUMN dirId INTEGER REFERENCES Directories(id)")
+        }
+    }
+    val files = mutableListOf<Triple<Long, Int, String>>()
+    conn.createStatement().use { stmt ->
+        stmt.executeQuery("SELECT id, projectId, filePath FROM FilePath WHERE dirId IS NULL").use { rs ->
+            while (rs.next()) files.add(Triple(rs.getLong(1), rs.getInt(2), rs.getString(3)))
+        }
+    }
+    conn.prepareStatement("UPDATE FilePath SET dirId = ? WHERE id = ?").use { pstmt ->
+        for ((id, projectId, filePath) in files) {
+            pstmt.setLong(1, ensureDirectory(conn, projectId, parentDirectory(filePath)))
+            pstmt.setLong(2, id)
+            pstmt.addBatch()
+        }
+        pstmt.executeBatch()
+    }
+}
+
+/**
+ * Version 2: dense integer ids for authors and file paths, and INTEGER columns for every reference to them.
+ * Existing random ids are renumbered; each table is rebuilt because SQLite cannot change a column type in place.
+ */
+private fun migrateToDenseIds(conn: Connection) {
+    conn.createStatement().use { stmt ->
+        stmt.execute("CREATE TEMP TABLE AuthorIds AS SELECT id AS oldId, ROW_NUMBER() OVER (ORDER BY projectId, id) AS newId FROM Authors")
+        stmt.execute("CREATE TEMP TABLE FilePathIds AS SELECT id AS oldId, ROW_NUMBER() OVER (ORDER BY projectId, filePath) AS newId FROM FilePath")
+        stmt.execute("CREATE UNIQUE INDEX temp.idx_AuthorIds ON AuthorIds(oldId)")
+        stmt.execute("CREATE UNIQUE INDEX temp.idx_FilePathIds ON FilePathIds(oldId)")
+        val authorId = "COALESCE((SELECT newId FROM AuthorIds WHERE oldId = CAST(t.authorId AS INTEGER)), CAST(t.authorId AS INTEGER))"
+        val filePathId = "COALESCE((SELECT newId FROM FilePathIds WHERE oldId = CAST(t.filePathId AS INTEGER)), CAST(t.filePathId AS INTEGER))"
+        /* Keep references in the other tables pointing at the table name rather than at the renamed copy. */
+        stmt.execute("PRAGMA legacy_alter_table = ON")
+        rebuildTable(stmt, "Authors", sqlCreateAuthors, "id, name, email, projectId",
+            "SELECT m.newId, t.name, t.email, t.projectId FROM Authors_old t JOIN AuthorIds m ON m.oldId = t.id")
+        rebuildTable(stmt, "FilePath", sqlCreateFilePath, "id, projectId, filePath, dirId",
+            "SELECT m.newId, t.projectId, t.filePath, t.dirId FROM FilePath_old t JOIN FilePathIds m ON m.oldId = t.id")
+        rebuildTable(stmt, "Commits", sqlCreateCommits,
+            "hash, date, projectSize, projectId, authorId, stability, filesAdded, filesDeleted, filesModified, linesAdded, linesDeleted, linesModified, changes, changesSize",
+            "SELECT t.hash, t.date, t.projectSize, t.projectId, $authorId, t.stability, t.filesAdded, t.filesDeleted, t.filesModified, t.linesAdded, t.linesDeleted, t.linesModified, t.changes, t.changesSize FROM Commits_old t")
+        rebuildTable(stmt, "Files", sqlCreateFiles, "id, projectId, filePathId, hash, date",
+            "SELECT t.id, t.projectId, $filePathId, t.hash, t.date FROM Files_old t")
+        rebuildTable(stmt, "BlameFiles", sqlCreateBlameFiles, "id, projectId, filePathId, fileHash, lineSize",
+            "SELECT t.id, CAST(t.projectId AS INTEGER), $filePathId, t.fileHash, t.lineSize FROM BlameFiles_old t")
+        rebuildTable(stmt, "Blames", sqlCreateBlameV2, "id, projectId, authorId, blameFileId, blameHashes, lineIds, lineCounts, lineSize",
+            "SELECT t.id, t.projectId, $authorId, t.blameFileId, t.blameHashes, t.lineIds, t.lineCounts, t.lineSize FROM Blames_old t")
+        stmt.execute("PRAGMA legacy_alter_table = OFF")
+        stmt.execute("DROP TABLE temp.AuthorIds")
+        stmt.execute("DROP TABLE temp.FilePathIds")
+    }
+}
+
+/** Blames as of version 2, with JSON line lists; only used to migrate older databases. */
+private val sqlCreateBlameV2 = """
+    CREATE TABLE IF NOT EXISTS Blames (
+        id INTEGER PRIMARY KEY AUTOINCREMENT,
+        projectId INT NOT NULL,
+        authorId INTEGER NOT NULL,
+        blameFileId INT NOT NULL,
+        blameHashes TEXT NOT NULL,
+        lineIds TEXT NOT NULL,
+        lineCounts LONG NOT NULL,
+        lineSize LONG NOT NULL,
+        UNIQUE (projectId, authorId, BlameFileId)
+    );
+""".trimIndent()
+
+/**
+ * Version 3: Blames stores the owned lines as a [BlameLines] BLOB instead of a JSON list of line numbers and a
+ * JSON (possibly gzipped and Base64 encoded) list with one commit hash per line.
+ */
+private fun migrateToBlameLines(conn: Connection) {
+    val mapper = ObjectMapper()
+    conn.createStatement().use { stmt ->
+        stmt.execute("PRAGMA legacy_alter_table = ON")
+        stmt.execute("ALTER TABLE Blames RENAME TO Blames_old")
+        stmt.execute(sqlCreateBlame)
+        stmt.execute("PRAGMA legacy_alter_table = OFF")
+    }
+    conn.prepareStatement("INSERT INTO Blames(id, projectId, authorId, blameFileId, lineRanges, lineCounts, lineSize) VALUES(?, ?, ?, ?, ?, ?, ?)").use { insert ->
+        conn.createStatement().use { stmt ->
+            stmt.executeQuery("SELECT id, projectId, authorId, blameFileId, blameHashes, lineIds, lineSize FROM Blames_old").use { rs ->
+                while (rs.next()) {
+                    val hashes = mapper.readValue(jsonText(rs.getString("blameHashes")), Array<String>::class.java)
+                    val lineIds = mapper.readValue(jsonText(rs.getString("lineIds")), IntArray::class.java)
+                    val order = lineIds.indices.sortedBy { lineIds[it] }
+                    val lines = BlameLines()
+                    for (i in order) lines.add(lineIds[i], hashes[i])
+                    insert.setLong(1, rs.getLong("id"))
+                    insert.setInt(2, rs.getInt("projectId"))
+                    insert.setLong(3, rs.getLong("authorId"))
+                    insert.setInt(4, rs.getInt("blameFileId"))
+                    insert.setBytes(5, lines.encode())
+                    insert.setLong(6, lines.size.toLong())
+                    insert.setLong(7, rs.getLong("lineSize"))
+                    insert.addBatch()
+                }
+            }
+        }
+        insert.executeBatch()
+    }
+    conn.createStatement().use { stmt -> stmt.execute("DROP TABLE Blames_old") }
+}
+
+/**
+ * Version 4: per-author totals, filled from the commits already ingested.
+ */
+private fun migrateToAuthorStats(conn: Connection) {
+    conn.createStatement().use { stmt ->
+        stmt.execute(sqlCreateAuthorStats)
+        stmt.execute("""
+            INSERT INTO AuthorStats(projectId, authorId, commits, filesAdded, filesDeleted, filesModified, linesAdded, linesDeleted, linesModified, changes, changesSize, firstDate, lastDate)
+            SELECT projectId, authorId, COUNT(*), SUM(filesAdded), SUM(filesDeleted), SUM(filesModified), SUM(linesAdded), SUM(linesDeleted), SUM(linesModified), SUM(changes), SUM(changesSize), MIN(date), MAX(date)
+            FROM Commits
+            GROUP BY projectId, authorId
+        """.trimIndent())
+    }
+}
+
+/**
+ * Version 5: the heads blamed so far, oldest first by seq, so that old blame snapshots can be pruned.
+ */
+private fun migrateToBlameHeads(conn: Connection) {
+    conn.createStatement().use { stmt ->
+        stmt.execute(sqlCreateBlameHeads)
+        stmt.execute("""
+            INSERT OR IGNORE INTO BlameHeads(projectId, headHash, seq)
+            SELECT projectId, fileHash, ROW_NUMBER() OVER (PARTITION BY projectId ORDER BY MAX(id))
+            FROM BlameFiles
+            GROUP BY projectId, fileHash
+        """.trimIndent())
+    }
+}
+
+/**
+ * Version 6: BlameFiles.sourceId, set on the rows of files that did not change since the previous head and
+ * that share the Blames rows of the row it points at instead of having their own.
+ */
+private fun migrateToBlameSources(conn: Connection) {
+    if (!hasColumn(conn, "BlameFiles", "sourceId")) {
+        conn.createStatement().use { stmt ->
+            stmt.execute("ALTER TABLE BlameFiles ADD COLUMN sourceId INTEGER REFERENCES BlameFiles(id)")
+        }
+    }
+}
+
+/**
+ * Version 7: encoded blame results by path and the last commit that touched it, the disk tier of the blame cache.
+ */
+private fun migrateToBlameSnapshots(conn: Connection) {
+    conn.createStatement().use { stmt -> stmt.execute(sqlCreateBlameSnapshots) }
+}
+
+/**
+ * Version 8: line ownership estimated during ingest, per file as encoded author runs and per file and author as
+ * line counts, together with the head it was computed for.
+ */
+private fun migrateToLineOwnership(conn: Connection) {
+    conn.createStatement().use { stmt ->
+        stmt.execute(sqlCreateOwnershipHeads)
+        stmt.execute(sqlCreateOwnershipFiles)
+        stmt.execute(sqlCreateLineOwners)
+    }
+}
+
+/**
+ * Version 9: blame snapshots keyed by file path id and raw commit id, with the sequence number of the last blame
+ * head that used them. The old rows are only a cache and are dropped rather than converted.
+ */
+private fun migrateToCompactBlameSnapshots(conn: Connection) {
+    conn.createStatement().use { stmt ->
+        stmt.execute("DROP TABLE IF EXISTS BlameSnapshots")
+        stmt.execute(sqlCreateBlameSnapshots)
+    }
+}
+
+/* Batched inserts used to gzip and Base64 encode the list. */
+private fun jsonText(value: String): String =
+    if (value.startsWith("[")) value
+    else GZIPInputStream(Base64.getDecoder().decode(value).inputStream()).bufferedReader(Charsets.UTF_8).use { it.readText() }
+
+private fun rebuildTable(stmt: Statement, table: String, createSql: String, columns: String, select: String) {
+    stmt.execute("ALTER TABLE $table RENAME TO ${table}_old")
+    stmt.execute(createSql)
+    stmt.execute("INSERT INTO $table($columns) $select")
+    stmt.execute("DROP TABLE ${table}_old")
+}
+
+/** Secondary indexes, created once the tables are at the current version; a table rebuilt by a migration loses its own. */
+internal fun createIndexes(stmt: Statement) {
+    stmt.execute("CREATE INDEX IF NOT EXISTS idx_DirectoryClosure_descendant ON DirectoryClosure(descendantId)")
+    stmt.execute("CREATE INDEX IF NOT EXISTS idx_FilePath_dirId ON FilePath(dirId)")
+    stmt.execute("CREATE INDEX IF NOT EXISTS idx_Files_projectId_filePathId ON Files(projectId, filePathId)")
+    stmt.execute("CREATE INDEX IF NOT EXISTS idx_Files_hash ON Files(hash)")
+    stmt.execute("CREATE INDEX IF NOT EXISTS idx_Commits_projectId_date ON Commits(projectId, date)")
+    stmt.execute("CREATE INDEX IF NOT EXISTS idx_Commits_authorId_date ON Commits(authorId, date)")
+    stmt.execute("CREATE INDEX IF NOT EXISTS idx_Blames_blameFileId ON Blames(blameFileId)")
+    stmt.execute("CREATE INDEX IF NOT EXISTS idx_BlameFiles_sourceId ON BlameFiles(sourceId)")
+    stmt.execute("CREATE INDEX IF NOT EXISTS idx_BlameSnapshots_projectId_usedSeq ON BlameSnapshots(projectId, usedSeq)")
+}
+
+private fun tableExists(conn: Connection, table: String): Boolean =
+    conn.prepareStatement("SELECT 1 FROM sqlite_master WHERE type = 'table' AND name = ?").use { pstmt ->
+        pstmt.setString(1, table)
+        pstmt.executeQuery().use { rs -> rs.next() }
+    }
+
+private fun hasColumn(conn: Connection, table: String, column: String): Boolean {
+    conn.createStatement().use { stmt ->
+        stmt.executeQuery("PRAGMA table_info($table)").use { rs ->
+            while (rs.next()) if (rs.getString("name").equals(column, ignoreCase = true)) return true
+        }
+    }
+    return false
+}
+
+/**
+ * @return The directory containing [path], "" for the repository root.
+ */
+fun parentDirectory(path: String): String = path.substringBeforeLast('/', "")
+
+/**
+ * Id of the directory row for [path], inserting it, its missing ancestors and their closure rows first.
+ * Must run on the write connection.
+ */
+fun ensureDirectory(conn: Connection, projectId: Int, path: String): Long {
+    conn.prepareStatement("SELECT id FROM Directories WHERE projectId = ? AND path = ?").use { pstmt ->
+        pstmt.setInt(1, projectId)
+        pstmt.setString(2, path)
+        pstmt.executeQuery().use { rs -> if (rs.next()) return rs.getLong(1) }
+    }
+    val parentId = if (path.isEmpty()) null else ensureDirectory(conn, projectId, parentDirectory(path))
+    val id = conn.prepareStatement("INSERT INTO Directories(projectId, parentId, path) VALUES(?, ?, ?) RETURNING id").use { pstmt ->
+        pstmt.setInt(1, projectId)
+        if (parentId != null) pstmt.setLong(2, parentId) else pstmt.setNull(2, java.sql.Types.INTEGER)
+        pstmt.setString(3, path)
+        pstmt.executeQuery().use { rs -> rs.next(); rs.getLong(1) }
+    }
+    conn.prepareStatement("""
+        INSERT INTO DirectoryClosure(ancestorId, descendantId, depth)
+        SELECT ancestorId, ?, depth + 1 FROM DirectoryClosure WHERE descendantId = ?
+        UNION ALL SELECT ?, ?, 0
+    """.trimIndent()).use { pstmt ->
+        pstmt.setLong(1, id)
+        pstmt.setLong(2, parentId ?: -1)
+        pstmt.setLong(3, id)
+        pstmt.setLong(4, id)
+        pstmt.executeUpdate()
+    }
+    return id
+}
+
 fun dropTables(conn: Connection) {
     val sqlDropProjects = "DROP TABLE IF EXISTS Projects"
+    val sqlDropProjectRefs = "DROP TABLE IF EXISTS ProjectRefs"
     val sqlDropModels = "DROP TABLE IF EXISTS Models"
     val sqlDropAuthors = "DROP TABLE IF EXISTS Authors"
     val sqlDropCommits = "DROP TABLE IF EXISTS Commits"
@@ -189,9 +619,18 @@ fun dropTables(conn: Connection) {
     val sqlDropChanges = "DROP TABLE IF EXISTS Changes"
     val sqlDropBlameFiles = "DROP TABLE IF EXISTS BlameFiles"
     val sqlDropBlames = "DROP TABLE IF EXISTS Blames"
+    val sqlDropDirectories = "DROP TABLE IF EXISTS Directories"
+    val sqlDropAuthorStats = "DROP TABLE IF EXISTS AuthorStats"
+    val sqlDropDirectoryClosure = "DROP TABLE IF EXISTS DirectoryClosure"
+    val sqlDropBlameHeads = "DROP TABLE IF EXISTS BlameHeads"
+    val sqlDropBlameSnapshots = "DROP TABLE IF EXISTS BlameSnapshots"
+    val sqlDropOwnershipHeads = "DROP TABLE IF EXISTS OwnershipHeads"
+    val sqlDropOwnershipFiles = "DROP TABLE IF EXISTS OwnershipFiles"
+    val sqlDropLineOwners = "DROP TABLE IF EXISTS LineOwners"
 
     try {
         conn.createStatement().use { stmt ->
+            stmt.execute(sqlDropProjectRefs)
             stmt.execute(sqlDropProjects)
             stmt.execute(sqlDropModels)
             stmt.execute(sqlDropAuthors)
@@ -201,6 +640,15 @@ fun dropTables(conn: Connection) {
             stmt.execute(sqlDropBlames)
             stmt.execute(sqlDropFiles)
             stmt.execute(sqlDropBlameFiles)
+            stmt.execute(sqlDropDirectoryClosure)
+            stmt.execute(sqlDropDirectories)
+            stmt.execute(sqlDropAuthorStats)
+            stmt.execute(sqlDropBlameHeads)
+            stmt.execute(sqlDropBlameSnapshots)
+            stmt.execute(sqlDropOwnershipHeads)
+            stmt.execute(sqlDropOwnershipFiles)
+            stmt.execute(sqlDropLineOwners)
+            stmt.execute("PRAGMA user_version = 0")
             println("Tables have been created.")
         }
     } catch (e: SQLException) {
@@ -8,26 +8,68 @@ import java.io.ByteArrayInputStream
 import java.io.ByteArrayOutputStream
 import java.io.File
 import java.sql.Connection
-import java.sql.DriverManager
 import java.sql.PreparedStatement
 import java.sql.SQLException
 import java.util.*
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+import java.util.function.IntConsumer
 import java.util.zip.GZIPInputStream
 import java.util.zip.GZIPOutputStream
 
 
-class DataBaseUtil(val url:String) {
-    var conn: Connection
+/**
+ * Access to the analysis database. Thread-safe: writes go through one connection, reads are spread over a pool
+ * of read connections, see [ConnectionManager].
+ */
+class DataBaseUtil @JvmOverloads constructor(
+    val url: String,
+    pragmaProfile: PragmaProfile = PragmaProfile.DEFAULT,
+    readers: Int = ConnectionManager.DEFAULT_READERS,
+) {
+    private val connections: ConnectionManager
+    /** The write connection. */
+    val conn: Connection get() = connections.writer.connection
+    /** Called with the attempt number each time a statement is retried because of SQLITE_BUSY. */
+    var busyRetryListener: IntConsumer? = null
+    private val authorDictionaries = ConcurrentHashMap<Int, IdDictionary>()
+    private val filePathDictionaries = ConcurrentHashMap<Int, IdDictionary>()
+    private val generations = ConcurrentHashMap<Int, AtomicLong>()
+    private val blameHeadEpoch = AtomicLong()
+    /** Read-through cache of [getCommitSizeMap] and [getDeveloperInfo]. */
+    var commitSizeCache = CommitSizeCache()
+    /* Background work such as pruning; started on first use. */
+    private val maintenance = lazy {
+        Executors.newSingleThreadExecutor { task -> Thread(task, "db-maintenance").apply { isDaemon = true } }
+    }
     init {
         try {
             Class.forName("org.sqlite.JDBC")
         } catch (e: SQLException) {
             println(e.message)
         }
-        conn = DriverManager.getConnection("jdbc:sqlite:" + url)
-        conn.createStatement().use { stmt ->
-//            stmt.execute("PRAGMA synchronous = OFF ")
-//            stmt.execute("PRAGMA journal_mode=WAL")
+        connections = ConnectionManager(url, pragmaProfile, readers)
+    }
+
+    /* Statements are cached per connection; callers must not close them. */
+    private inline fun <T> read(sql: String, block: (PreparedStatement) -> T): T {
+        val connection = connections.acquireReader()
+        try {
+            return block(connection.prepare(sql))
+        } finally {
+            connections.release(connection)
+        }
+    }
+
+    private inline fun <T> write(sql: String, block: (PreparedStatement) -> T): T {
+        connections.writeLock.lock()
+        try {
+            return block(connections.writer.prepare(sql))
+        } finally {
+            connections.writeLock.unlock()
         }
     }
 
@@ -55,6 +97,7 @@ class DataBaseUtil(val url:String) {
             } catch (e: SQLException) {
                 if (e.message?.contains("SQLITE_BUSY") == true) {
                     println("Database is busy, retrying... (attempt ${attempt + 1})")
+                    busyRetryListener?.accept(attempt + 1)
                     Thread.sleep(100)
                 } else {
                     throw e
@@ -64,10 +107,28 @@ class DataBaseUtil(val url:String) {
         throw SQLException("Failed after $retries attempts due to database being busy.")
     }
 
+    fun <T> inTransaction(action: () -> T): T {
+        connections.writeLock.lock()
+        val autoCommit = conn.autoCommit
+        conn.autoCommit = false
+        try {
+            val result = action()
+            conn.commit()
+            return result
+        } catch (e: Exception) {
+            conn.rollback()
+            throw e
+        } finally {
+            conn.autoCommit = autoCommit
+            connections.writeLock.unlock()
+        }
+    }
+
+    /* Must run on the write connection, inside the write that inserted the row. */
     private fun getLastInsertId():Int {
         val sqlLastId = "SELECT last_insert_rowid()"
-        conn.createStatement().use { stmt ->
-            stmt.executeQuery(sqlLastId).use { rs ->
+        write(sqlLastId) { stmt ->
+            stmt.executeQuery().use { rs ->
                 if (rs.next()) {
                     return rs.getInt(1)
                 }
@@ -78,8 +139,8 @@ class DataBaseUtil(val url:String) {
 
     private fun getLastInsertStringId():String {
         val sqlLastId = "SELECT last_insert_rowid()"
-        conn.createStatement().use { stmt ->
-            stmt.executeQuery(sqlLastId).use { rs ->
+        write(sqlLastId) { stmt ->
+            stmt.executeQuery().use { rs ->
                 if (rs.next()) {
                     return rs.getString(1)
                 }
@@ -101,7 +162,12 @@ class DataBaseUtil(val url:String) {
     }
 
     fun create() {
-        createTables(conn)
+        connections.writeLock.lock()
+        try {
+            createTables(conn)
+        } finally {
+            connections.writeLock.unlock()
+        }
     }
 
     fun getUrlPath():String {
@@ -109,12 +175,16 @@ class DataBaseUtil(val url:String) {
     }
 
     fun closeConnection() {
-        conn.close()
+        if (maintenance.isInitialized()) {
+            maintenance.value.shutdown()
+            maintenance.value.awaitTermination(30, TimeUnit.SECONDS)
+        }
+        connections.close()
     }
 
     fun insertProject(name: String, filePath: String):Int {
         val sql = "INSERT OR IGNORE INTO Projects(name, filePath) VALUES(?, ?)"
-        conn.prepareStatement(sql).use { pstmt ->
+        write(sql) { pstmt ->
             pstmt.setString(1, name)
             pstmt.setString(2, filePath)
             if (pstmt.executeUpdate() > 0) return getLastInsertId()
@@ -124,30 +194,101 @@ class DataBaseUtil(val url:String) {
 
     fun getProjectId(projectName: String, filePath: String): Int? {
         val sql = "SELECT id FROM Projects WHERE name = ? AND filePath = ?"
-        conn.prepareStatement(sql).use { pstmt ->
+        read(sql) { pstmt ->
             pstmt.setString(1, projectName)
             pstmt.setString(2, filePath)
             return getIdExecute(pstmt)
         }
     }
 
+    fun getProjectTip(projectId: Int, ref: String): String? {
+        val sql = "SELECT tip FROM ProjectRefs WHERE projectId = ? AND ref = ?"
+        read(sql) { pstmt ->
+            pstmt.setInt(1, projectId)
+            pstmt.setString(2, ref)
+            pstmt.executeQuery().use { rs ->
+                if (rs.next()) return rs.getString(1)
+            }
+        }
+        return null
+    }
+
+    fun setProjectTip(projectId: Int, ref: String, tip: String) {
+        val sql = "INSERT INTO ProjectRefs(projectId, ref, tip) VALUES(?, ?, ?) ON CONFLICT(projectId, ref) DO UPDATE SET tip = excluded.tip"
+        write(sql) { pstmt ->
+            pstmt.setInt(1, projectId)
+            pstmt.setString(2, ref)
+            pstmt.setString(3, tip)
+            pstmt.executeUpdate()
+        }
+    }
+
+    fun deleteProjectTip(projectId: Int, ref: String) {
+        val sql = "DELETE FROM ProjectRefs WHERE projectId = ? AND ref = ?"
+        write(sql) { pstmt ->
+            pstmt.setInt(1, projectId)
+            pstmt.setString(2, ref)
+            pstmt.executeUpdate()
+        }
+    }
+
     fun insertAuthor(projectId:Int, name: String, email: String):Long? {
-        val sql = "INSERT OR IGNORE INTO Authors(id, projectId, name, email) VALUES(?, ?, ?, ?)"
-        return retryTransaction({conn.prepareStatement(sql).use { pstmt ->
-            val uniqueId = UUID.randomUUID().mostSignificantBits
-            pstmt.setLong(1, uniqueId)
-            pstmt.setInt(2, projectId)
-            pstmt.setString(3, name)
-            pstmt.setString(4, email)
-            if (pstmt.executeUpdate() > 0) return@retryTransaction uniqueId
+        val sql = "INSERT OR IGNORE INTO Authors(projectId, name, email) VALUES(?, ?, ?) RETURNING id"
+        return retryTransaction({write(sql) { pstmt ->
+            pstmt.setInt(1, projectId)
+            pstmt.setString(2, name)
+            pstmt.setString(3, email)
+            pstmt.executeQuery().use { rs ->
+                if (rs.next()) return@retryTransaction rs.getLong(1).also { authorIds(projectId).put(email, it) }
+            }
             return@retryTransaction null
         }
         })
     }
 
+    private fun insertAuthorRow(projectId: Int, name: String, email: String): Long {
+        val sql = "INSERT INTO Authors(projectId, name, email) VALUES(?, ?, ?) RETURNING id"
+        write(sql) { pstmt ->
+            pstmt.setInt(1, projectId)
+            pstmt.setString(2, name)
+            pstmt.setString(3, email)
+            pstmt.executeQuery().use { rs ->
+                rs.next()
+                return rs.getLong(1)
+            }
+        }
+    }
+
+    /**
+     * Author ids of a project by email, loaded from the database on first use.
+     */
+    fun authorIds(projectId: Int): IdDictionary = authorDictionaries.computeIfAbsent(projectId) {
+        IdDictionary { email -> getAuthorId(projectId, email) }.also { dictionary ->
+            loadIds("SELECT email, id FROM Authors WHERE projectId = ?", projectId, dictionary)
+        }
+    }
+
+    /**
+     * File path ids of a project by repository-relative path, loaded from the database on first use.
+     */
+    fun filePathIds(projectId: Int): IdDictionary = filePathDictionaries.computeIfAbsent(projectId) {
+        IdDictionary { filePath -> getFilePathId(projectId, filePath) }.also { dictionary ->
+            loadIds("SELECT filePath, id FROM FilePath WHERE projectId = ?", projectId, dictionary)
+        }
+    }
+
+    private fun loadIds(sql: String, projectId: Int, dictionary: IdDictionary) {
+        read(sql) { pstmt ->
+            pstmt.setInt(1, projectId)
+            pstmt.executeQuery().use { rs ->
+                while (rs.next()) dictionary.put(rs.getString(1), rs.getLong(2))
+            }
+        }
+    }
+
     fun getAuthorId(projectId: Int, email: String): Long? {
         val sql = "SELECT id FROM Authors WHERE projectId = ? AND email = ?"
-        conn.prepareStatement(sql).use { pstmt ->
+        read(sql) { pstmt ->
             pstmt.setInt(1, projectId)
             pstmt.setString(2, email)
             pstmt.executeQuery().use { rs ->
@@ -159,7 +300,7 @@ class DataBaseUtil(val url:String) {
 
     fun insertCommit(projectId:Int, authorId: Long, hash: String, date: Int, projectSize: Long, stability: Double, fileEntity: FileEntity):String {
         val sql = "INSERT OR IGNORE INTO Commits(projectId, authorId, hash, date, projectSize, stability, filesAdded, filesDeleted, filesModified, linesAdded, linesDeleted, linesModified, changes, changesSize) VALUES(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?) RETURNING hash"
-        return retryTransaction({conn.prepareStatement(sql).use { pstmt ->
+        return retryTransaction({ inTransaction { write(sql) { pstmt ->
             pstmt.setInt(1, projectId)
             pstmt.setLong(2, authorId)
             pstmt.setString(3, hash)
@@ -175,12 +316,153 @@ class DataBaseUtil(val url:String) {
             pstmt.setInt(13, fileEntity.changes)
             pstmt.setInt(14, fileEntity.changesSize)
             pstmt.executeQuery().use { rs ->
-                if (rs.next()) {
-                    return@retryTransaction rs.getString(1)
+                if (rs.next()) rs.getString(1) else null
+            }
+        }?.also {
+            addAuthorStats(projectId, listOf(AuthorStats(authorId, "", "").apply { add(date, fileEntity) }))
+        } ?: "" } }).also { advanceGeneration(projectId) }
+    }
+
+    fun insertCommitRecords(projectId: Int, records: List<CommitRecord>) {
+        val sqlCommit = "INSERT OR IGNORE INTO Commits(projectId, authorId, hash, date, projectSize, stability, filesAdded, filesDeleted, filesModified, linesAdded, linesDeleted, linesModified, changes, changesSize) VALUES(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)"
+        val sqlFile = "INSERT OR IGNORE INTO Files(projectId, filePathId, hash, date) VALUES(?, ?, ?, ?)"
+        val authorIds = authorIds(projectId)
+        val filePathIds = filePathIds(projectId)
+        try {
+            insertCommitRecords(projectId, records, sqlCommit, sqlFile, authorIds, filePathIds)
+            advanceGeneration(projectId)
+        } catch (e: Exception) {
+            /* The ids interned by this batch were rolled back with it. */
+            authorIds.clear()
+            filePathIds.clear()
+            throw e
+        }
+    }
+
+    private fun insertCommitRecords(projectId: Int, records: List<CommitRecord>, sqlCommit: String, sqlFile: String,
+                                    authorIds: IdDictionary, filePathIds: IdDictionary) {
+        inTransaction {
+            val recordAuthorIds = LongArray(records.size)
+            val inserted = write(sqlCommit) { commitStmt ->
+                for ((i, record) in records.withIndex()) {
+                    val authorId = authorIds.getOrInsert(record.authorEmail) {
+                        insertAuthorRow(projectId, record.authorName, record.authorEmail)
+                    }
+                    recordAuthorIds[i] = authorId
+                    commitStmt.setInt(1, projectId)
+                    commitStmt.setLong(2, authorId)
+                    commitStmt.setString(3, record.hash)
+                    commitStmt.setInt(4, record.date)
+                    commitStmt.setLong(5, record.projectSize)
+                    commitStmt.setDouble(6, record.stability)
+                    commitStmt.setInt(7, record.fileEntity.fileAdded)
+                    commitStmt.setInt(8, record.fileEntity.fileDeleted)
+                    commitStmt.setInt(9, record.fileEntity.fileModified)
+                    commitStmt.setInt(10, record.fileEntity.linesAdded)
+                    commitStmt.setInt(11, record.fileEntity.linesDeleted)
+                    commitStmt.setInt(12, record.fileEntity.linesModified)
+                    commitStmt.setInt(13, record.fileEntity.changes)
+                    commitStmt.setInt(14, record.fileEntity.changesSize)
+                    commitStmt.addBatch()
                 }
+                commitStmt.executeBatch()
             }
+            /* Commits that were already stored are neither counted again nor given a second set of Files rows. */
+            val stats = LinkedHashMap<Long, AuthorStats>()
+            write(sqlFile) { fileStmt ->
+                for ((i, record) in records.withIndex()) {
+                    if (inserted[i] == 0) continue
+                    stats.getOrPut(recordAuthorIds[i]) { AuthorStats(recordAuthorIds[i], record.authorName, record.authorEmail) }
+                        .add(record.date, record.fileEntity)
+                    for (path in record.paths) {
+                        val filePathId = filePathIds.getOrInsert(path) { insertFilePathRow(projectId, path) }
+                        fileStmt.setInt(1, projectId)
+                        fileStmt.setLong(2, filePathId)
+                        fileStmt.setString(3, record.hash)
+                        fileStmt.setInt(4, record.date)
+                        fileStmt.addBatch()
+                    }
+                }
+                fileStmt.executeBatch()
+            }
+            addAuthorStats(projectId, stats.values)
+        }
+    }
+
+    private fun addAuthorStats(projectId: Int, stats: Collection<AuthorStats>) {
+        val sql = """
+            INSERT INTO AuthorStats(projectId, authorId, commits, filesAdded, filesDeleted, filesModified, linesAdded, linesDeleted, linesModified, changes, changesSize, firstDate, lastDate)
+            VALUES(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)
+            ON CONFLICT(projectId, authorId) DO UPDATE SET
+                commits = commits + excluded.commits,
+                filesAdded = filesAdded + excluded.filesAdded,
+                filesDeleted = filesDeleted + excluded.filesDeleted,
+                filesModified = filesModified + excluded.filesModified,
+                linesAdded = linesAdded + excluded.linesAdded,
+                linesDeleted = linesDeleted + excluded.linesDeleted,
+                linesModified = linesModified + excluded.linesModified,
+                changes = changes + excluded.changes,
+                changesSize = changesSize + excluded.changesSize,
+                firstDate = MIN(firstDate, excluded.firstDate),
+                lastDate = MAX(lastDate, excluded.lastDate)
+        """.trimIndent()
+        if (stats.isEmpty()) return
+        write(sql) { pstmt ->
+            for (author in stats) {
+                pstmt.setInt(1, projectId)
+                pstmt.setLong(2, author.authorId)
+                pstmt.setLong(3, author.commits)
+                pstmt.setLong(4, author.fileAdded)
+                pstmt.setLong(5, author.fileDeleted)
+                pstmt.setLong(6, author.fileModified)
+                pstmt.setLong(7, author.linesAdded)
+                pstmt.setLong(8, author.linesDeleted)
+                pstmt.setLong(9, author.linesModified)
+                pstmt.setLong(10, author.changes)
+                pstmt.setLong(11, author.changesSize)
+                pstmt.setInt(12, author.firstDate)
+                pstmt.setInt(13, author.lastDate)
+                pstmt.addBatch()
+            }
+            pstmt.executeBatch()
         }
-        return@retryTransaction ""})
+    }
+
+    /**
+     * Totals of every author of a project, read from the rollup the commit writer maintains.
+     */
+    fun getAuthorStats(projectId: Int): List<AuthorStats> {
+        val sql = """
+            SELECT s.*, a.name AS authorName, a.email AS authorEmail
+            FROM AuthorStats s
+            JOIN Authors a ON a.id = s.authorId
+            WHERE s.projectId = ?
+        """.trimIndent()
+        val stats = mutableListOf<AuthorStats>()
+        read(sql) { pstmt ->
+            pstmt.setInt(1, projectId)
+            pstmt.executeQuery().use { rs ->
+                while (rs.next()) {
+                    stats.add(AuthorStats(
+                        authorId = rs.getLong("authorId"),
+                        authorName = rs.getString("authorName"),
+                        authorEmail = rs.getString("authorEmail"),
+                        commits = rs.getLong("commits"),
+                        fileAdded = rs.getLong("filesAdded"),
+                        fileDeleted = rs.getLong("filesDeleted"),
+                        fileModified = rs.getLong("filesModified"),
+                        linesAdded = rs.getLong("linesAdded"),
+                        linesDeleted = rs.getLong("linesDeleted"),
+                        linesModified = rs.getLong("linesModified"),
+                        changes = rs.getLong("changes"),
+                        changesSize = rs.getLong("changesSize"),
+                        firstDate = rs.getInt("firstDate"),
+                        lastDate = rs.getInt("lastDate")
+                    ))
+                }
+            }
+        }
+        return stats
     }
 
     fun getCommit(projectId: Int, hash: String): CommitEntity? {
@@ -189,68 +471,135 @@ class DataBaseUtil(val url:String) {
             FROM Commits c
             JOIN Authors a ON a.id = c.authorId AND a.projectId = c.projectId
             WHERE hash = ? and c.projectId = ?""".trimIndent()
-        conn.prepareStatement(sql).use { pstmt ->
+        read(sql) { pstmt ->
             pstmt.setString(1, hash)
             pstmt.setInt(2, projectId)
             pstmt.executeQuery().use { rs ->
-                if (rs.next()) {
-                    return CommitEntity(
-                        projectId = rs.getInt("projectId"),
-                        authorId = rs.getLong("authorId"),
-                        authorName = rs.getString("authorName"),
-                        authorEmail = rs.getString("authorEmail"),
-                        hash = rs.getString("hash"),
-                        date = rs.getInt("date"),
-                        projectSize = rs.getLong("projectSize"),
-                        stability = rs.getDouble("stability"),
-                        fileEntity = FileEntity(
-                            fileAdded = rs.getInt("filesAdded"),
-                            fileDeleted = rs.getInt("filesDeleted"),
-                            fileModified = rs.getInt("filesModified"),
-                            linesAdded = rs.getInt("linesAdded"),
-                            linesDeleted = rs.getInt("linesDeleted"),
-                            linesModified = rs.getInt("linesModified"),
-                            changes = rs.getInt("changes"),
-                            changesSize = rs.getInt("changesSize")
-                        )
-                    )
-                }
+                if (rs.next()) return readCommitEntity(rs)
             }
         }
         return null
     }
 
-
-    fun getDeveloperInfo(projectId: Int, filePath: String) : Map<String, CommitSize>  {
-        val commitSizeMap = mutableMapOf<String, CommitSize>()
+    /**
+     * The numeric columns of every commit of a project, in insertion order.
+     */
+    fun getCommitColumns(projectId: Int): CommitColumns {
         val sql = """
-        SELECT c.*, a.email as authorEmail, a.name as authorName
-        FROM Commits c
-        JOIN Files f ON f.hash = c.hash AND f.projectId = c.projectId
-        JOIN FilePath fp ON f.filePathId = fp.id
-        JOIN Authors a ON a.id = c.authorId AND a.projectId = c.projectId
-        WHERE c.projectId = ?
-          AND fp.filePath LIKE ?
-    """
-        conn.prepareStatement(sql).use { pstmt ->
-            pstmt.setIntOrNull(1, projectId)
-            pstmt.setString(2, filePath + "%")
-            val rs = pstmt.executeQuery()
-            while (rs.next()) {
-                val hash = rs.getString("hash")
-                val authorName = rs.getString("authorName")
-                val authorEmail = rs.getString("authorEmail")
-                val date = rs.getInt("date")
-                val size = rs.getLong("projectSize")
-                val stability = rs.getDouble("stability")
-                commitSizeMap.put(hash, CommitSize(hash, authorName, authorEmail, size, date, stability))
+            SELECT hash, date, projectSize, stability, filesAdded, filesDeleted, filesModified, linesAdded, linesDeleted, linesModified, changes, changesSize
+            FROM Commits
+            WHERE projectId = ?
+            ORDER BY rowid
+        """.trimIndent()
+        val columns = CommitColumns.Builder(1024)
+        read(sql) { pstmt ->
+            pstmt.setInt(1, projectId)
+            pstmt.executeQuery().use { rs ->
+                while (rs.next()) {
+                    columns.append(rs.getString(1), rs.getInt(2), rs.getLong(3), rs.getDouble(4),
+                        FileEntity(rs.getInt(5), rs.getInt(6), rs.getInt(7), rs.getInt(8), rs.getInt(9), rs.getInt(10), rs.getInt(11), rs.getInt(12)))
+                }
             }
         }
-        return commitSizeMap
+        return columns.build()
     }
 
-    fun getCommitSizeMap(projectId: Int, filePath: String) : Map<String, CommitSize>  {
-        val commitSizeMap = mutableMapOf<String, CommitSize>()
+    /**
+     * Every commit of a project in date order, read lazily; close the cursor when done.
+     *
+     * @param fromDate Inclusive lower bound on the commit date, in epoch seconds
+     * @param toDate Exclusive upper bound on the commit date, in epoch seconds
+     * @param authorId Only commits of this author
+     */
+    @JvmOverloads
+    fun streamCommits(projectId: Int, fromDate: Int? = null, toDate: Int? = null, authorId: Long? = null,
+                      fetchSize: Int = CommitCursor.DEFAULT_FETCH_SIZE): CommitCursor {
+        val sql = StringBuilder("""
+            SELECT c.*, a.email as authorEmail, a.name as authorName
+            FROM Commits c
+            JOIN Authors a ON a.id = c.authorId AND a.projectId = c.projectId
+            WHERE c.projectId = ?""".trimIndent())
+        if (fromDate != null) sql.append(" AND c.date >= ?")
+        if (toDate != null) sql.append(" AND c.date < ?")
+        if (authorId != null) sql.append(" AND c.authorId = ?")
+        sql.append(" ORDER BY c.date, c.hash")
+        /* Not a cached statement: it stays open for as long as the caller keeps the cursor. */
+        val connection = connections.acquireReader()
+        val pstmt = try {
+            connection.connection.prepareStatement(sql.toString()).apply {
+                var index = 1
+                setInt(index++, projectId)
+                if (fromDate != null) setInt(index++, fromDate)
+                if (toDate != null) setInt(index++, toDate)
+                if (authorId != null) setLong(index, authorId)
+                this.fetchSize = fetchSize
+            }
+        } catch (e: Exception) {
+            connections.release(connection)
+            throw e
+        }
+        return CommitCursor(connections, connection, pstmt)
+    }
+
+
+    fun getDeveloperInfo(projectId: Int, filePath: String) : Map<String, CommitSize> = getCommitSizeMap(projectId, filePath)
+
+    /**
+     * Commits touching [filePath], served from [commitSizeCache] until new commits or files of the project are
+     * stored. The map is shared and must not be modified.
+     */
+    fun getCommitSizeMap(projectId: Int, filePath: String) : Map<String, CommitSize> {
+        val path = filePath.trimEnd('/')
+        return commitSizeCache.get(projectId, path, generation(projectId)) { getCommitsUnder(projectId, path) }
+    }
+
+    /**
+     * @return A counter that moves on whenever commits or files of the project are stored.
+     */
+    fun generation(projectId: Int): Long = generations[projectId]?.get() ?: 0
+
+    internal fun advanceGeneration(projectId: Int) {
+        generations.computeIfAbsent(projectId) { AtomicLong() }.incrementAndGet()
+    }
+
+    /**
+     * Commits touching [filePath] or, when it names a directory, anything below it. Directories resolve through
+     * DirectoryClosure and files through their FilePath row, so both are index lookups; the LIKE scan only
+     * remains for prefixes that are neither.
+     */
+    private fun getCommitsUnder(projectId: Int, filePath: String): Map<String, CommitSize> {
+        val path = filePath.trimEnd('/')
+        val dirId = getDirectoryId(projectId, path)
+        if (dirId != null) {
+            val sql = """
+            SELECT c.*, a.email as authorEmail, a.name as authorName
+            FROM DirectoryClosure dc
+            JOIN FilePath fp ON fp.dirId = dc.descendantId
+            JOIN Files f ON f.projectId = fp.projectId AND f.filePathId = fp.id
+            JOIN Commits c ON c.hash = f.hash AND c.projectId = f.projectId
+            JOIN Authors a ON a.id = c.authorId AND a.projectId = c.projectId
+            WHERE dc.ancestorId = ?
+        """
+            return read(sql) { pstmt ->
+                pstmt.setLong(1, dirId)
+                readCommitSizes(pstmt)
+            }
+        }
+        val filePathId = getFilePathId(projectId, path)
+        if (filePathId != null) {
+            val sql = """
+            SELECT c.*, a.email as authorEmail, a.name as authorName
+            FROM Files f
+            JOIN Commits c ON c.hash = f.hash AND c.projectId = f.projectId
+            JOIN Authors a ON a.id = c.authorId AND a.projectId = c.projectId
+            WHERE f.projectId = ? AND f.filePathId = ?
+        """
+            return read(sql) { pstmt ->
+                pstmt.setInt(1, projectId)
+                pstmt.setLong(2, filePathId)
+                readCommitSizes(pstmt)
+            }
+        }
         val sql = """
         SELECT c.*, a.email as authorEmail, a.name as authorName
         FROM Commits c
@@ -260,10 +609,16 @@ class DataBaseUtil(val url:String) {
         WHERE c.projectId = ?
           AND fp.filePath LIKE ?
     """
-        conn.prepareStatement(sql).use { pstmt ->
+        return read(sql) { pstmt ->
             pstmt.setIntOrNull(1, projectId)
             pstmt.setString(2, filePath + "%")
-            val rs = pstmt.executeQuery()
+            readCommitSizes(pstmt)
+        }
+    }
+
+    private fun readCommitSizes(pstmt: PreparedStatement): Map<String, CommitSize> {
+        val commitSizeMap = mutableMapOf<String, CommitSize>()
+        pstmt.executeQuery().use { rs ->
             while (rs.next()) {
                 val hash = rs.getString("hash")
                 val authorName = rs.getString("authorName")
@@ -277,9 +632,67 @@ class DataBaseUtil(val url:String) {
         return commitSizeMap
     }
 
+    fun getDirectoryId(projectId: Int, path: String): Long? {
+        val sql = "SELECT id FROM Directories WHERE projectId = ? AND path = ?"
+        read(sql) { pstmt ->
+            pstmt.setInt(1, projectId)
+            pstmt.setString(2, path)
+            pstmt.executeQuery().use { rs ->
+                if (rs.next()) return rs.getLong(1)
+            }
+        }
+        return null
+    }
+
+    /* Not cached: it only runs for new paths, and a rolled back batch would leave stale ids behind. */
+    private fun directoryIdFor(projectId: Int, filePath: String): Long {
+        connections.writeLock.lock()
+        try {
+            return ensureDirectory(connections.writer.connection, projectId, parentDirectory(filePath))
+        } finally {
+            connections.writeLock.unlock()
+        }
+    }
+
+    fun hasCommits(projectId: Int): Boolean {
+        val sql = "SELECT 1 FROM Commits WHERE projectId = ? LIMIT 1"
+        read(sql) { pstmt ->
+            pstmt.setInt(1, projectId)
+            return isExistExecute(pstmt)
+        }
+    }
+
+    /**
+     * Start the first ingest of a project as a [BulkLoad].
+     *
+     * @throws IllegalStateException if the project already has commits
+     */
+    fun beginBulkLoad(projectId: Int): BulkLoad {
+        check(!hasCommits(projectId)) { "Project $projectId already has commits" }
+        return BulkLoad(this, projectId)
+    }
+
+    /** Drop the id dictionaries of a project, so that they are reloaded from the database on next use. */
+    internal fun forgetIds(projectId: Int) {
+        authorDictionaries.remove(projectId)
+        filePathDictionaries.remove(projectId)
+    }
+
+    fun getCommitHashes(projectId: Int): Set<String> {
+        val hashes = HashSet<String>()
+        val sql = "SELECT hash FROM Commits WHERE projectId = ?"
+        read(sql) { pstmt ->
+            pstmt.setInt(1, projectId)
+            pstmt.executeQuery().use { rs ->
+                while (rs.next()) hashes.add(rs.getString(1))
+            }
+        }
+        return hashes
+    }
+
     fun isCommitExist(hash: String): Boolean {
         val sql = "SELECT * FROM Commits WHERE hash = ?"
-        conn.prepareStatement(sql).use { pstmt ->
+        read(sql) { pstmt ->
             pstmt.setString(1, hash)
             return isExistExecute(pstmt)
         }
@@ -287,7 +700,7 @@ class DataBaseUtil(val url:String) {
 
     fun insertBlameFile(projectId: Int, filePathId: Long, fileHash: String):Int {
         val sql = "INSERT OR IGNORE INTO BlameFiles(projectId, filePathId, fileHash) VALUES(?, ?, ?)"
-        return retryTransaction({conn.prepareStatement(sql).use { pstmt ->
+        return retryTransaction({write(sql) { pstmt ->
             pstmt.setInt(1, projectId)
             pstmt.setLong(2, filePathId)
             pstmt.setString(3, fileHash)
@@ -297,22 +710,38 @@ class DataBaseUtil(val url:String) {
     }
 
     fun insertFilePath(projectId: Int, filePath: String):Long? {
-        val sql = "INSERT OR IGNORE INTO FilePath(id, projectId, filePath) VALUES(?, ?, ?)"
+        val sql = "INSERT OR IGNORE INTO FilePath(projectId, filePath, dirId) VALUES(?, ?, ?) RETURNING id"
         return retryTransaction({
-            conn.prepareStatement(sql).use { pstmt ->
-                val uniqueId = UUID.randomUUID().mostSignificantBits
-                pstmt.setLong(1, uniqueId)
-                pstmt.setInt(2, projectId)
-                pstmt.setString(3, filePath)
-                if (pstmt.executeUpdate() > 0) return@retryTransaction uniqueId
+            val dirId = directoryIdFor(projectId, filePath)
+            write(sql) { pstmt ->
+                pstmt.setInt(1, projectId)
+                pstmt.setString(2, filePath)
+                pstmt.setLong(3, dirId)
+                pstmt.executeQuery().use { rs ->
+                    if (rs.next()) return@retryTransaction rs.getLong(1).also { filePathIds(projectId).put(filePath, it) }
+                }
             }
             return@retryTransaction null
         })
     }
 
+    private fun insertFilePathRow(projectId: Int, filePath: String): Long {
+        val sql = "INSERT INTO FilePath(projectId, filePath, dirId) VALUES(?, ?, ?) RETURNING id"
+        val dirId = directoryIdFor(projectId, filePath)
+        write(sql) { pstmt ->
+            pstmt.setInt(1, projectId)
+            pstmt.setString(2, filePath)
+            pstmt.setLong(3, dirId)
+            pstmt.executeQuery().use { rs ->
+                rs.next()
+                return rs.getLong(1)
+            }
+        }
+    }
+
     fun getFilePathId(projectId: Int, filePath: String): Long? {
         val sql = "SELECT id FROM FilePath WHERE projectId = ? AND filePath = ?"
-        conn.prepareStatement(sql).use { pstmt ->
+        read(sql) { pstmt ->
             pstmt.setInt(1, projectId)
             pstmt.setString(2, filePath)
             pstmt.executeQuery().use { rs ->
@@ -324,19 +753,19 @@ class DataBaseUtil(val url:String) {
 
     fun insertFile(projectId: Int, filePathId: Long, hash: String, date: Int):Int {
         val sql = "INSERT OR IGNORE INTO Files(projectId, filePathId, hash, date) VALUES(?, ?, ?, ?)"
-        conn.prepareStatement(sql).use { pstmt ->
+        write(sql) { pstmt ->
             pstmt.setInt(1, projectId)
             pstmt.setLong(2, filePathId)
             pstmt.setString(3, hash)
             pstmt.setInt(4, date)
-            if (pstmt.executeUpdate() > 0) return getLastInsertId()
+            if (pstmt.executeUpdate() > 0) return getLastInsertId().also { advanceGeneration(projectId) }
         }
         return -1
     }
 
     fun insertFile(fileList: List<org.repodriller.scm.entities.FileEntity>) {
         val sql = "INSERT OR IGNORE INTO Files(projectId, filePathId, hash, date) VALUES(?, ?, ?, ?)"
-        retryTransaction({conn.prepareStatement(sql, java.sql.Statement.RETURN_GENERATED_KEYS).use { pstmt ->
+        retryTransaction({write(sql) { pstmt ->
             for (file in fileList) {
                 pstmt.setInt(1, file.projectId)
                 pstmt.setLong(2,  file.filePathId)
@@ -346,35 +775,73 @@ class DataBaseUtil(val url:String) {
             }
             pstmt.executeBatch()
         }})
+        fileList.map { it.projectId }.distinct().forEach(::advanceGeneration)
     }
 
     fun insertFile(file: org.repodriller.scm.entities.FileEntity):Int {
         val sql = "INSERT OR IGNORE INTO Files(projectId, filePathId, hash, date) VALUES(?, ?, ?, ?)"
-        conn.prepareStatement(sql, java.sql.Statement.RETURN_GENERATED_KEYS).use { pstmt ->
+        write(sql) { pstmt ->
             pstmt.setInt(1, file.projectId)
             pstmt.setLong(2, file.filePathId)
             pstmt.setString(3, file.hash)
             pstmt.setInt(4, file.date)
-            if (pstmt.executeUpdate() > 0) return getLastInsertId()
+            if (pstmt.executeUpdate() > 0) return getLastInsertId().also { advanceGeneration(file.projectId) }
         }
         return -1
     }
 
     fun updateBlameFileSize(blameFileId: Int) {
         val sqlUpdate = """
-        UPDATE BlameFiles SET lineSize = (SELECT SUM(lineSize) FROM Blames WHERE blameFileId = ? GROUP BY projectId AND blameFileId) WHERE id = ?
+        UPDATE BlameFiles SET lineSize = COALESCE((SELECT SUM(lineSize) FROM Blames WHERE blameFileId = ?), 0) WHERE id = ?
     """.trimIndent()
 
-        retryTransaction({conn.prepareStatement(sqlUpdate).use { pstmt ->
+        retryTransaction({write(sqlUpdate) { pstmt ->
             pstmt.setInt(1, blameFileId)
             pstmt.setInt(2, blameFileId)
             pstmt.executeUpdate()
         }})
     }
 
+    /**
+     * Delete a BlameFiles row together with the Blames rows written for it, for a blame that failed part way.
+     */
+    fun deleteBlameFile(blameFileId: Int) {
+        retryTransaction({ inTransaction {
+            write("DELETE FROM Blames WHERE blameFileId = ?") { pstmt ->
+                pstmt.setInt(1, blameFileId)
+                pstmt.executeUpdate()
+            }
+            write("DELETE FROM BlameFiles WHERE id = ?") { pstmt ->
+                pstmt.setInt(1, blameFileId)
+                pstmt.executeUpdate()
+            }
+        } })
+    }
+
+    /**
+     * Delete the BlameFiles rows of [fileHash] whose blame was never completed, that is whose lineSize was never
+     * set by [updateBlameFileSize], together with their Blames rows, so that they are blamed again.
+     */
+    fun deleteIncompleteBlameFiles(projectId: Int, fileHash: String) {
+        val sqlBlames = """
+            DELETE FROM Blames WHERE blameFileId IN (
+                SELECT id FROM BlameFiles WHERE projectId = ? AND fileHash = ? AND lineSize IS NULL)
+        """.trimIndent()
+        val sqlFiles = "DELETE FROM BlameFiles WHERE projectId = ? AND fileHash = ? AND lineSize IS NULL"
+        retryTransaction({ inTransaction {
+            for (sql in listOf(sqlBlames, sqlFiles)) {
+                write(sql) { pstmt ->
+                    pstmt.setInt(1, projectId)
+                    pstmt.setString(2, fileHash)
+                    pstmt.executeUpdate()
+                }
+            }
+        } })
+    }
+
     fun getBlameFileId(projectId: Int, filePathId: Long, fileHash: String):Int? {
         val sql = "SELECT * FROM BlameFiles WHERE projectId = ? AND filePathId = ? AND fileHash = ?"
-        conn.prepareStatement(sql).use { pstmt ->
+        read(sql) { pstmt ->
             pstmt.setInt(1, projectId)
             pstmt.setLong(2, filePathId)
             pstmt.setString(3, fileHash)
@@ -382,15 +849,297 @@ class DataBaseUtil(val url:String) {
         }
     }
 
+    /**
+     * Record that blame snapshots are stored for [headHash], making it the most recently blamed head of the project.
+     * Only called once every file of the head is blamed, see [deleteIncompleteBlameFiles].
+     */
+    fun touchBlameHead(projectId: Int, headHash: String) {
+        val sql = """
+            INSERT INTO BlameHeads(projectId, headHash, seq)
+            SELECT ?, ?, COALESCE(MAX(seq), 0) + 1 FROM BlameHeads WHERE projectId = ?
+            ON CONFLICT(projectId, headHash) DO UPDATE SET seq = excluded.seq
+        """.trimIndent()
+        retryTransaction({ write(sql) { pstmt ->
+            pstmt.setInt(1, projectId)
+            pstmt.setString(2, headHash)
+            pstmt.setInt(3, projectId)
+            pstmt.executeUpdate()
+        } })
+        blameHeadEpoch.incrementAndGet()
+    }
+
+    /**
+     * @return The heads of the project with blame snapshots, most recently blamed first.
+     */
+    fun getBlameHeads(projectId: Int): List<String> {
+        val heads = mutableListOf<String>()
+        val sql = "SELECT headHash FROM BlameHeads WHERE projectId = ? ORDER BY seq DESC"
+        read(sql) { pstmt ->
+            pstmt.setInt(1, projectId)
+            pstmt.executeQuery().use { rs ->
+                while (rs.next()) heads.add(rs.getString(1))
+            }
+        }
+        return heads
+    }
+
+    /**
+     * Delete the blame snapshots of every head of the project except the [keepLast] most recently blamed ones
+     * and those in [keep]. Blames rows that a kept snapshot still shares through BlameFiles.sourceId are handed
+     * over to it rather than deleted, and the BlameSnapshots rows no kept head used go with them. The freed pages
+     * stay in the file until [incrementalVacuum].
+     *
+     * @return The heads that were pruned.
+     */
+    fun pruneBlameHeads(projectId: Int, keepLast: Int, keep: Set<String>): List<String> {
+        require(keepLast >= 1) { "keepLast must be positive: $keepLast" }
+        val sqlPruned = "INSERT INTO temp.PrunedBlameFiles(id) SELECT id FROM BlameFiles WHERE projectId = ? AND fileHash = ?"
+        val sqlHeads = "DELETE FROM BlameHeads WHERE projectId = ? AND headHash = ?"
+        val sqlSnapshots = """
+            DELETE FROM BlameSnapshots WHERE projectId = ?
+            AND usedSeq < (SELECT COALESCE(MIN(seq), 0) FROM BlameHeads WHERE projectId = ?)
+        """.trimIndent()
+        return retryTransaction({ inTransaction {
+            val pruned = getBlameHeads(projectId).drop(keepLast).filter { it !in keep }
+            if (pruned.isEmpty()) return@inTransaction pruned
+            conn.createStatement().use { stmt ->
+                stmt.execute("CREATE TEMP TABLE IF NOT EXISTS PrunedBlameFiles(id INTEGER PRIMARY KEY, heirId INTEGER)")
+                stmt.execute("DELETE FROM temp.PrunedBlameFiles")
+            }
+            for (sql in listOf(sqlPruned, sqlHeads)) {
+                write(sql) { pstmt ->
+                    for (head in pruned) {
+                        pstmt.setInt(1, projectId)
+                        pstmt.setString(2, head)
+                        pstmt.addBatch()
+                    }
+                    pstmt.executeBatch()
+                }
+            }
+            conn.createStatement().use { stmt ->
+                /* The first kept row sharing a pruned row inherits its Blames, the others point at the heir. */
+                stmt.execute("""
+                    UPDATE temp.PrunedBlameFiles SET heirId = (
+                        SELECT MIN(r.id) FROM BlameFiles r
+                        WHERE r.sourceId = PrunedBlameFiles.id AND r.id NOT IN (SELECT id FROM temp.PrunedBlameFiles))
+                """.trimIndent())
+                stmt.execute("""
+                    UPDATE Blames SET blameFileId = (SELECT heirId FROM temp.PrunedBlameFiles p WHERE p.id = Blames.blameFileId)
+                    WHERE blameFileId IN (SELECT id FROM temp.PrunedBlameFiles WHERE heirId IS NOT NULL)
+                """.trimIndent())
+                stmt.execute("""
+                    UPDATE BlameFiles SET sourceId = NULLIF((SELECT heirId FROM temp.PrunedBlameFiles p WHERE p.id = BlameFiles.sourceId), id)
+                    WHERE sourceId IN (SELECT id FROM temp.PrunedBlameFiles WHERE heirId IS NOT NULL)
+                """.trimIndent())
+                stmt.execute("DELETE FROM Blames WHERE blameFileId IN (SELECT id FROM temp.PrunedBlameFiles)")
+                stmt.execute("DELETE FROM BlameFiles WHERE id IN (SELECT id FROM temp.PrunedBlameFiles)")
+                stmt.execute("DELETE FROM temp.PrunedBlameFiles")
+            }
+            write(sqlSnapshots) { pstmt ->
+                pstmt.setInt(1, projectId)
+                pstmt.setInt(2, projectId)
+                pstmt.executeUpdate()
+            }
+            pruned
+        } })
+    }
+
+    /**
+     * Add BlameFiles rows at [toHead] for the files of [filePathIds] that were completely blamed at [fromHead],
+     * sharing the Blames rows of that snapshot. Only valid for files that did not change between the two heads.
+     *
+     * @return The file path ids that were carried forward; the others have no snapshot at [fromHead].
+     */
+    fun carryBlameFiles(projectId: Int, fromHead: String, toHead: String, filePathIds: Collection<Long>): Set<Long> {
+        val sql = """
+            INSERT OR IGNORE INTO BlameFiles(projectId, filePathId, fileHash, lineSize, sourceId)
+            SELECT projectId, filePathId, ?, lineSize, COALESCE(sourceId, id) FROM BlameFiles
+            WHERE projectId = ? AND filePathId = ? AND fileHash = ? AND lineSize IS NOT NULL
+        """.trimIndent()
+        if (filePathIds.isEmpty()) return emptySet()
+        val ids = filePathIds.toList()
+        val counts = retryTransaction({ inTransaction { write(sql) { pstmt ->
+            for (filePathId in ids) {
+                pstmt.setString(1, toHead)
+                pstmt.setInt(2, projectId)
+                pstmt.setLong(3, filePathId)
+                pstmt.setString(4, fromHead)
+                pstmt.addBatch()
+            }
+            pstmt.executeBatch()
+        } } })
+        return ids.filterIndexed { i, _ -> counts[i] > 0 }.toSet()
+    }
+
+    /**
+     * [pruneBlameHeads] followed by [incrementalVacuum] on a background thread of this DataBaseUtil.
+     */
+    fun pruneBlameHeadsAsync(projectId: Int, keepLast: Int, keep: Set<String>): CompletableFuture<List<String>> =
+        CompletableFuture.supplyAsync({
+            pruneBlameHeads(projectId, keepLast, keep).also { if (it.isNotEmpty()) incrementalVacuum() }
+        }, maintenance.value)
+
+    /**
+     * Bumped by every [touchBlameHead]. A blame snapshot marked used under one epoch needs no new mark until the
+     * next, see [touchBlameSnapshot].
+     */
+    fun blameHeadEpoch(): Long = blameHeadEpoch.get()
+
+    /**
+     * @return The encoded blame of [filePathId] at [commitHash] stored by [putBlameSnapshot], or null.
+     */
+    fun getBlameSnapshot(projectId: Int, filePathId: Long, commitHash: String, followRenames: Boolean): ByteArray? {
+        val sql = "SELECT data FROM BlameSnapshots WHERE projectId = ? AND filePathId = ? AND commitId = ? AND followRenames = ?"
+        read(sql) { pstmt ->
+            pstmt.setInt(1, projectId)
+            pstmt.setLong(2, filePathId)
+            pstmt.setBytes(3, objectIdBytes(commitHash))
+            pstmt.setBoolean(4, followRenames)
+            pstmt.executeQuery().use { rs ->
+                if (rs.next()) return rs.getBytes(1)
+            }
+        }
+        return null
+    }
+
+    /**
+     * Store the encoded blame of [filePathId] at [commitHash], the last commit that touched it, as used by the head
+     * being blamed: the next [touchBlameHead] gives that head the sequence number recorded here. Such a blame never
+     * changes, so an existing row is kept.
+     */
+    fun putBlameSnapshot(projectId: Int, filePathId: Long, commitHash: String, followRenames: Boolean, data: ByteArray) {
+        val sql = """
+            INSERT OR IGNORE INTO BlameSnapshots(projectId, filePathId, commitId, followRenames, usedSeq, data)
+            VALUES(?, ?, ?, ?, (SELECT COALESCE(MAX(seq), 0) + 1 FROM BlameHeads WHERE projectId = ?), ?)
+        """.trimIndent()
+        retryTransaction({ write(sql) { pstmt ->
+            pstmt.setInt(1, projectId)
+            pstmt.setLong(2, filePathId)
+            pstmt.setBytes(3, objectIdBytes(commitHash))
+            pstmt.setBoolean(4, followRenames)
+            pstmt.setInt(5, projectId)
+            pstmt.setBytes(6, data)
+            pstmt.executeUpdate()
+        } })
+    }
+
+    /**
+     * Mark a stored blame snapshot as used by the head being blamed, so that [pruneBlameHeads] keeps it as long as
+     * that head.
+     */
+    fun touchBlameSnapshot(projectId: Int, filePathId: Long, commitHash: String, followRenames: Boolean) {
+        val sql = """
+            UPDATE BlameSnapshots SET usedSeq = (SELECT COALESCE(MAX(seq), 0) + 1 FROM BlameHeads WHERE projectId = ?)
+            WHERE projectId = ? AND filePathId = ? AND commitId = ? AND followRenames = ?
+        """.trimIndent()
+        retryTransaction({ write(sql) { pstmt ->
+            pstmt.setInt(1, projectId)
+            pstmt.setInt(2, projectId)
+            pstmt.setLong(3, filePathId)
+            pstmt.setBytes(4, objectIdBytes(commitHash))
+            pstmt.setBoolean(5, followRenames)
+            pstmt.executeUpdate()
+        } })
+    }
+
+    /**
+     * Delete the least recently used blame snapshots of the project until the rest take at most [maxBytes].
+     *
+     * @return The number of snapshots deleted.
+     */
+    fun pruneBlameSnapshots(projectId: Int, maxBytes: Long): Int {
+        val sql = """
+            DELETE FROM BlameSnapshots WHERE rowid IN (
+                SELECT rowid FROM (
+                    SELECT rowid, SUM(length(data)) OVER (ORDER BY usedSeq DESC, rowid DESC) AS total
+                    FROM BlameSnapshots WHERE projectId = ?)
+                WHERE total > ?)
+        """.trimIndent()
+        return retryTransaction({ write(sql) { pstmt ->
+            pstmt.setInt(1, projectId)
+            pstmt.setLong(2, maxBytes)
+            pstmt.executeUpdate()
+        } })
+    }
+
+    /**
+     * Give free pages back to the file system, at most [pages] per write so that writers are not held up for
+     * long. Does nothing unless the database uses `auto_vacuum = INCREMENTAL`, see [PragmaProfile.autoVacuum].
+     *
+     * @return The number of pages released.
+     */
+    @JvmOverloads
+    fun incrementalVacuum(pages: Int = DEFAULT_VACUUM_PAGES): Long {
+        var released = 0L
+        while (true) {
+            connections.writeLock.lock()
+            try {
+                if (pragma("auto_vacuum") != INCREMENTAL_VACUUM) return released
+                val free = pragma("freelist_count")
+                if (free == 0L) return released
+                conn.createStatement().use { stmt -> stmt.execute("PRAGMA incremental_vacuum($pages)") }
+                val freed = free - pragma("freelist_count")
+                if (freed <= 0) return released
+                released += freed
+            } finally {
+                connections.writeLock.unlock()
+            }
+        }
+    }
+
+    /**
+     * Switch a database created before incremental vacuuming was the default. Rewrites the whole file with
+     * VACUUM, so it takes as long as a copy of the database and needs as much free disk space.
+     */
+    fun enableIncrementalVacuum() {
+        connections.writeLock.lock()
+        try {
+            if (pragma("auto_vacuum") == INCREMENTAL_VACUUM) return
+            conn.createStatement().use { stmt ->
+                stmt.execute("PRAGMA auto_vacuum = INCREMENTAL")
+                stmt.execute("VACUUM")
+            }
+        } finally {
+            connections.writeLock.unlock()
+        }
+    }
+
+    /* Must run on the write connection. */
+    private fun pragma(name: String): Long = conn.createStatement().use { stmt ->
+        stmt.executeQuery("PRAGMA $name").use { rs -> if (rs.next()) rs.getLong(1) else 0 }
+    }
+
+    /**
+     * @return The number of stored commits that touched each path of the project.
+     */
+    fun getFileChurn(projectId: Int): Map<String, Int> {
+        val churn = HashMap<String, Int>()
+        val sql = """
+            SELECT fp.filePath, COUNT(*)
+            FROM Files f
+            JOIN FilePath fp ON fp.id = f.filePathId
+            WHERE f.projectId = ?
+            GROUP BY f.filePathId
+        """.trimIndent()
+        read(sql) { pstmt ->
+            pstmt.setInt(1, projectId)
+            pstmt.executeQuery().use { rs ->
+                while (rs.next()) churn[rs.getString(1)] = rs.getInt(2)
+            }
+        }
+        return churn
+    }
+
     fun getLastFileHash(projectId: Int, filePathId: Long):String? {
         val sql = "SELECT hash FROM Files WHERE projectId = ? AND filePathId = ? ORDER BY date DESC LIMIT 1"
-        conn.prepareStatement(sql).use { pstmt ->
+        read(sql) { pstmt ->
             pstmt.setInt(1, projectId)
             pstmt.setLong(2, filePathId)
-            val rs = pstmt.executeQuery()
-            while (rs.next()) {
-                val hash = rs.getString("hash")
-                return hash
+            pstmt.executeQuery().use { rs ->
+                while (rs.next()) {
+                    val hash = rs.getString("hash")
+                    return hash
+                }
             }
         }
         return null
@@ -402,44 +1151,43 @@ class DataBaseUtil(val url:String) {
             FROM Files
             WHERE projectId = ? AND filePathId = ?
         """.trimIndent()
-        conn.prepareStatement(sql).use { pstmt ->
+        read(sql) { pstmt ->
             pstmt.setInt(1, projectId)
             pstmt.setLong(2, filePathId)
-            val rs = pstmt.executeQuery()
-            return if (rs.next()) {
-                Pair(rs.getString("firstHash"), rs.getString("lastHash"))
-            } else {
-                null
+            pstmt.executeQuery().use { rs ->
+                return if (rs.next()) {
+                    Pair(rs.getString("firstHash"), rs.getString("lastHash"))
+                } else {
+                    null
+                }
             }
         }
     }
 
     fun insertBlame(blameEntity: BlameEntity) {
-        val sql = "INSERT OR IGNORE INTO Blames(projectId, authorId, blameFileId, blameHashes, lineIds, lineCounts, lineSize) VALUES(?, ?, ?, ?, ?, ?, ?)"
-        conn.prepareStatement(sql, java.sql.Statement.RETURN_GENERATED_KEYS).use { pstmt ->
+        val sql = "INSERT OR IGNORE INTO Blames(projectId, authorId, blameFileId, lineRanges, lineCounts, lineSize) VALUES(?, ?, ?, ?, ?, ?)"
+        write(sql) { pstmt ->
             pstmt.setInt(1, blameEntity.projectId)
-            pstmt.setString(2, blameEntity.authorId)
+            pstmt.setLong(2, blameEntity.authorId)
             pstmt.setInt(3, blameEntity.blameFileId)
-            pstmt.setString(4, convertListToJson(blameEntity.blameHashes))
-            pstmt.setString(5, convertListToJson(blameEntity.lineIds))
-            pstmt.setLong(6, blameEntity.lineIds.size.toLong())
-            pstmt.setLong(7, blameEntity.lineSize)
+            pstmt.setBytes(4, blameEntity.lines.encode())
+            pstmt.setLong(5, blameEntity.lines.size.toLong())
+            pstmt.setLong(6, blameEntity.lineSize)
             pstmt.executeUpdate()
         }
     }
 
     fun insertBlame(blameEntities: List<BlameEntity>) {
-        val sql = "INSERT OR IGNORE INTO Blames(projectId, authorId, blameFileId, blameHashes, lineIds, lineCounts, lineSize) VALUES(?, ?, ?, ?, ?, ?, ?)"
+        val sql = "INSERT OR IGNORE INTO Blames(projectId, authorId, blameFileId, lineRanges, lineCounts, lineSize) VALUES(?, ?, ?, ?, ?, ?)"
         retryTransaction({
-            conn.prepareStatement(sql).use { pstmt ->
+            write(sql) { pstmt ->
                 for (blame in blameEntities) {
                     pstmt.setInt(1, blame.projectId)
-                    pstmt.setString(2, blame.authorId)
+                    pstmt.setLong(2, blame.authorId)
                     pstmt.setInt(3, blame.blameFileId)
-                    pstmt.setString(4, compress(convertListToJson(blame.blameHashes)))
-                    pstmt.setString(5, convertListToJson(blame.lineIds))
-                    pstmt.setLong(6, blame.lineIds.size.toLong())
-                    pstmt.setLong(7, blame.lineSize)
+                    pstmt.setBytes(4, blame.lines.encode())
+                    pstmt.setLong(5, blame.lines.size.toLong())
+                    pstmt.setLong(6, blame.lineSize)
                     pstmt.addBatch()
                 }
                 pstmt.executeBatch()
@@ -447,43 +1195,184 @@ class DataBaseUtil(val url:String) {
         })
     }
 
-    fun getDevelopersByProjectId(projectId: Int): Map<String, String> {
-        val developers = mutableMapOf<String, String>()
+    fun getDevelopersByProjectId(projectId: Int): Map<String, Long> {
+        val developers = mutableMapOf<String, Long>()
         val sql = "SELECT id, email FROM Authors WHERE projectId = ?"
 
-        conn.prepareStatement(sql).use { pstmt ->
+        read(sql) { pstmt ->
             pstmt.setInt(1, projectId)
-            val rs = pstmt.executeQuery()
-            while (rs.next()) {
-                val id = rs.getString("id")
-                val email = rs.getString("email")
-                developers.put(email, id)
+            pstmt.executeQuery().use { rs ->
+                while (rs.next()) {
+                    val id = rs.getLong("id")
+                    val email = rs.getString("email")
+                    developers.put(email, id)
+                }
             }
         }
         return developers
     }
 
+    /**
+     * Line ownership of each developer at the most recently blamed head.
+     */
     fun developerUpdateByBlameInfo(projectId: Int, developers: Map<String, DeveloperInfo>) {
+        getBlameHeads(projectId).firstOrNull()?.let { developerUpdateByBlameInfo(projectId, it, developers) }
+    }
+
+    /**
+     * Line ownership of each developer in the blame snapshot of [headHash].
+     */
+    fun developerUpdateByBlameInfo(projectId: Int, headHash: String, developers: Map<String, DeveloperInfo>) {
         val sql = """
         SELECT SUM(b.lineCounts) AS lineCount, SUM(b.lineSize) AS lineSize, authors.email, string_agg(bf.filePathId, ', ') as filePaths
-        FROM Blames b
-        JOIN BlameFiles bf ON b.blameFileId = bf.id
+        FROM BlameFiles bf
+        JOIN Blames b ON b.blameFileId = COALESCE(bf.sourceId, bf.id)
         JOIN Authors authors on authors.id = b.authorId
-        WHERE b.projectId = ?
-        GROUP BY b.projectId, b.authorId
+        WHERE bf.projectId = ? AND bf.fileHash = ?
+        GROUP BY b.authorId
     """
 
-        conn.prepareStatement(sql).use { pstmt ->
+        read(sql) { pstmt ->
             pstmt.setInt(1, projectId)
-            val rs = pstmt.executeQuery()
-            while (rs.next()) {
-                val email = rs.getString("email")
-                val count = rs.getLong("lineCount")
-                val size = rs.getLong("lineSize")
-                val filePaths = rs.getString("filePaths").split(", ")
-                developers.get(email)?.actualLinesSize = size
-                developers.get(email)?.actualLinesOwner = count
-                developers.get(email)?.ownerForFiles?.addAll(filePaths)
+            pstmt.setString(2, headHash)
+            pstmt.executeQuery().use { rs ->
+                while (rs.next()) {
+                    val email = rs.getString("email")
+                    val count = rs.getLong("lineCount")
+                    val size = rs.getLong("lineSize")
+                    val filePaths = rs.getString("filePaths").split(", ")
+                    developers.get(email)?.actualLinesSize = size
+                    developers.get(email)?.actualLinesOwner = count
+                    developers.get(email)?.ownerForFiles?.addAll(filePaths)
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The head whose line ownership estimate is stored, or null.
+     */
+    fun getOwnershipHead(projectId: Int): String? {
+        val sql = "SELECT headHash FROM OwnershipHeads WHERE projectId = ?"
+        read(sql) { pstmt ->
+            pstmt.setInt(1, projectId)
+            pstmt.executeQuery().use { rs ->
+                if (rs.next()) return rs.getString(1)
+            }
+        }
+        return null
+    }
+
+    /**
+     * @return The encoded author runs of every file in the stored ownership estimate, by path.
+     */
+    fun getOwnershipFiles(projectId: Int): Map<String, ByteArray> {
+        val files = HashMap<String, ByteArray>()
+        val sql = """
+            SELECT fp.filePath, o.data
+            FROM OwnershipFiles o
+            JOIN FilePath fp ON fp.id = o.filePathId
+            WHERE o.projectId = ?
+        """.trimIndent()
+        read(sql) { pstmt ->
+            pstmt.setInt(1, projectId)
+            pstmt.executeQuery().use { rs ->
+                while (rs.next()) files[rs.getString(1)] = rs.getBytes(2)
+            }
+        }
+        return files
+    }
+
+    /**
+     * Move the stored ownership estimate to [headHash]: the files in [changed] are replaced by [files] and
+     * [owners], those missing from [files] are dropped.
+     */
+    fun storeOwnership(projectId: Int, headHash: String, changed: Collection<Long>, files: Map<Long, ByteArray>, owners: List<LineOwner>) {
+        val sqlDeleteFiles = "DELETE FROM OwnershipFiles WHERE projectId = ? AND filePathId = ?"
+        val sqlDeleteOwners = "DELETE FROM LineOwners WHERE projectId = ? AND filePathId = ?"
+        val sqlFiles = "INSERT INTO OwnershipFiles(projectId, filePathId, data) VALUES(?, ?, ?)"
+        val sqlOwners = "INSERT INTO LineOwners(projectId, filePathId, authorId, lineCount, lineSize) VALUES(?, ?, ?, ?, ?)"
+        val sqlHead = "INSERT INTO OwnershipHeads(projectId, headHash) VALUES(?, ?) ON CONFLICT(projectId) DO UPDATE SET headHash = excluded.headHash"
+        retryTransaction({ inTransaction {
+            for (sql in listOf(sqlDeleteFiles, sqlDeleteOwners)) {
+                write(sql) { pstmt ->
+                    for (filePathId in changed) {
+                        pstmt.setInt(1, projectId)
+                        pstmt.setLong(2, filePathId)
+                        pstmt.addBatch()
+                    }
+                    pstmt.executeBatch()
+                }
+            }
+            write(sqlFiles) { pstmt ->
+                for ((filePathId, data) in files) {
+                    pstmt.setInt(1, projectId)
+                    pstmt.setLong(2, filePathId)
+                    pstmt.setBytes(3, data)
+                    pstmt.addBatch()
+                }
+                pstmt.executeBatch()
+            }
+            write(sqlOwners) { pstmt ->
+                for (owner in owners) {
+                    pstmt.setInt(1, projectId)
+                    pstmt.setLong(2, owner.filePathId)
+                    pstmt.setLong(3, owner.authorId)
+                    pstmt.setInt(4, owner.lines)
+                    pstmt.setLong(5, owner.lineSize)
+                    pstmt.addBatch()
+                }
+                pstmt.executeBatch()
+            }
+            write(sqlHead) { pstmt ->
+                pstmt.setInt(1, projectId)
+                pstmt.setString(2, headHash)
+                pstmt.executeUpdate()
+            }
+        } })
+    }
+
+    /**
+     * Drop the ownership estimate of the project, for when it can no longer be carried forward.
+     */
+    fun clearOwnership(projectId: Int) {
+        val sqlHeads = "DELETE FROM OwnershipHeads WHERE projectId = ?"
+        val sqlFiles = "DELETE FROM OwnershipFiles WHERE projectId = ?"
+        val sqlOwners = "DELETE FROM LineOwners WHERE projectId = ?"
+        retryTransaction({ inTransaction {
+            for (sql in listOf(sqlHeads, sqlFiles, sqlOwners)) {
+                write(sql) { pstmt ->
+                    pstmt.setInt(1, projectId)
+                    pstmt.executeUpdate()
+                }
+            }
+        } })
+    }
+
+    /**
+     * Line ownership of each developer in the stored ownership estimate, limited to the files under [path] when
+     * it is not null; the counterpart of [developerUpdateByBlameInfo].
+     */
+    fun developerUpdateByOwnership(projectId: Int, path: String?, developers: Map<String, DeveloperInfo>) {
+        val sql = """
+        SELECT SUM(o.lineCount) AS lineCount, SUM(o.lineSize) AS lineSize, authors.email, string_agg(o.filePathId, ', ') as filePaths
+        FROM LineOwners o
+        JOIN FilePath fp ON fp.id = o.filePathId
+        JOIN Authors authors on authors.id = o.authorId
+        WHERE o.projectId = ? AND (? IS NULL OR fp.filePath = ? OR substr(fp.filePath, 1, length(?) + 1) = ? || '/')
+        GROUP BY o.authorId
+    """
+
+        read(sql) { pstmt ->
+            pstmt.setInt(1, projectId)
+            for (i in 2..5) pstmt.setString(i, path?.trimEnd('/'))
+            pstmt.executeQuery().use { rs ->
+                while (rs.next()) {
+                    val email = rs.getString("email")
+                    developers.get(email)?.actualLinesSize = rs.getLong("lineSize")
+                    developers.get(email)?.actualLinesOwner = rs.getLong("lineCount")
+                    developers.get(email)?.ownerForFiles?.addAll(rs.getString("filePaths").split(", "))
+                }
             }
         }
     }
@@ -523,6 +1412,10 @@ class DataBaseUtil(val url:String) {
         return jsonString
     }
 
+    companion object {
+        const val DEFAULT_VACUUM_PAGES = 1000
+        private const val INCREMENTAL_VACUUM = 2L
+    }
 }
 
 fun main() {
@@ -0,0 +1,55 @@
+package org.repodriller.util
+
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * In-memory interning of one project's keys (author emails, file paths) to their database ids.
+ *
+ * Ids are the rowids SQLite assigns on insert, so they are dense and increase in insertion order; analytics code
+ * can index primitive arrays of [maxId] + 1 elements by them. Missing keys are looked up in the database before
+ * they are inserted, so the dictionary is only a cache and [clear] is always safe.
+ */
+class IdDictionary internal constructor(private val lookup: (String) -> Long?) {
+
+    private val ids = ConcurrentHashMap<String, Long>()
+    @Volatile
+    private var max = 0L
+
+    /**
+     * @return The id of [key], or null when it is not in the database.
+     */
+    fun get(key: String): Long? = ids[key] ?: lookup(key)?.also { put(key, it) }
+
+    /**
+     * @return The id of [key], calling [insert] to create the row when it is not in the database yet.
+     */
+    @Synchronized
+    fun getOrInsert(key: String, insert: () -> Long): Long = get(key) ?: insert().also { put(key, it) }
+
+    operator fun contains(key: String): Boolean = get(key) != null
+
+    /**
+     * @return The keys interned so far; after [DataBaseUtil.authorIds] or [DataBaseUtil.filePathIds] that is every key of the project.
+     */
+    fun keys(): Set<String> = ids.keys
+
+    val size: Int get() = ids.size
+
+    /**
+     * @return The largest id interned so far.
+     */
+    fun maxId(): Long = max
+
+    /** Forget every id, e.g. after the transaction that inserted some of them was rolled back. */
+    @Synchronized
+    fun clear() {
+        ids.clear()
+        max = 0
+    }
+
+    @Synchronized
+    internal fun put(key: String, id: Long) {
+        ids[key] = id
+        if (id > max) max = id
+    }
+}
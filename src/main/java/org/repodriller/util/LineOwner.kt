@@ -0,0 +1,4 @@
+package org.repodriller.util
+
+/** Lines of one file attributed to one author by the ownership estimate, and their approximate size in bytes. */
+data class LineOwner(val filePathId: Long, val authorId: Long, val lines: Int, val lineSize: Long)
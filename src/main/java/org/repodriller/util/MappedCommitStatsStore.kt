@@ -0,0 +1,163 @@
+package org.repodriller.util
+
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.nio.MappedByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.StandardOpenOption
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * [CommitStatsStore] in append-only, memory-mapped column files, one directory per project under [directory].
+ *
+ * Each column is a file of fixed-width little-endian values at `ordinal * width`; `hashes` holds the raw commit id
+ * of each ordinal and doubles as the sidecar for the hash index, which is rebuilt in memory when a project is
+ * opened. `count` is written after the columns, so a crash during an append loses at most that batch. Columns are
+ * mapped as a whole, which limits a project to about 2^31 / 20 commits.
+ */
+class MappedCommitStatsStore(private val directory: Path) : CommitStatsStore {
+
+    private val projects = ConcurrentHashMap<Int, ProjectColumns>()
+
+    override fun append(projectId: Int, records: List<CommitRecord>) = project(projectId).append(records)
+
+    override fun columns(projectId: Int): CommitColumns = project(projectId).snapshot()
+
+    /**
+     * @return The ordinal of [hash], or -1 when it is not stored.
+     */
+    fun ordinalOf(projectId: Int, hash: String): Int = project(projectId).ordinalOf(hash)
+
+    override fun close() {
+        projects.values.forEach { it.close() }
+        projects.clear()
+    }
+
+    private fun project(projectId: Int): ProjectColumns =
+        projects.computeIfAbsent(projectId) { ProjectColumns(directory.resolve(it.toString())) }
+
+    private class ProjectColumns(directory: Path) : AutoCloseable {
+
+        private val count: Column
+        private val hashes: Column
+        private val date: Column
+        private val projectSize: Column
+        private val stability: Column
+        /* filesAdded, filesDeleted, filesModified, linesAdded, linesDeleted, linesModified, changes, changesSize */
+        private val counters: List<Column>
+        private var size: Int
+        private var index = IntArray(INITIAL_ROWS * 2)
+        private val scratch = ByteBuffer.allocate(OBJECT_ID_LENGTH).order(ByteOrder.LITTLE_ENDIAN)
+
+        init {
+            Files.createDirectories(directory)
+            count = Column(directory.resolve("count"), 4, 1)
+            hashes = Column(directory.resolve("hashes"), OBJECT_ID_LENGTH)
+            date = Column(directory.resolve("date.i32"), 4)
+            projectSize = Column(directory.resolve("projectSize.i64"), 8)
+            stability = Column(directory.resolve("stability.f64"), 8)
+            counters = COUNTERS.map { Column(directory.resolve("$it.i32"), 4) }
+            size = count.buffer.getInt(0)
+            for (ordinal in 0 until size) index(ordinal)
+        }
+
+        @Synchronized
+        fun append(records: List<CommitRecord>) {
+            var added = 0
+            for (record in records) {
+                if (ordinalOf(record.hash) >= 0) continue
+                val ordinal = size + added
+                val columns = listOf(hashes, date, projectSize, stability) + counters
+                columns.forEach { it.ensure(ordinal + 1) }
+                putObjectId(record.hash, hashes.buffer.position(ordinal * OBJECT_ID_LENGTH))
+                date.buffer.putInt(ordinal * 4, record.date)
+                projectSize.buffer.putLong(ordinal * 8, record.projectSize)
+                stability.buffer.putDouble(ordinal * 8, record.stability)
+                val stats = record.fileEntity
+                val values = intArrayOf(stats.fileAdded, stats.fileDeleted, stats.fileModified, stats.linesAdded,
+                    stats.linesDeleted, stats.linesModified, stats.changes, stats.changesSize)
+                for (c in counters.indices) counters[c].buffer.putInt(ordinal * 4, values[c])
+                index(ordinal)
+                added++
+            }
+            size += added
+            count.buffer.putInt(0, size)
+        }
+
+        @Synchronized
+        fun snapshot(): CommitColumns {
+            fun bytes(column: Column) = column.buffer.slice(0, size * column.width).order(ByteOrder.LITTLE_ENDIAN)
+            fun ints(column: Column) = bytes(column).asIntBuffer().asReadOnlyBuffer()
+            return CommitColumns(size, bytes(hashes).asReadOnlyBuffer(), ints(date),
+                bytes(projectSize).asLongBuffer().asReadOnlyBuffer(), bytes(stability).asDoubleBuffer().asReadOnlyBuffer(),
+                ints(counters[0]), ints(counters[1]), ints(counters[2]), ints(counters[3]),
+                ints(counters[4]), ints(counters[5]), ints(counters[6]), ints(counters[7]))
+        }
+
+        @Synchronized
+        fun ordinalOf(hash: String): Int {
+            putObjectId(hash, scratch.clear())
+            val mask = index.size - 1
+            var slot = scratch.getInt(0) and mask
+            while (true) {
+                val entry = index[slot]
+                if (entry == 0) return -1
+                if (hashes.buffer.hasId(entry - 1, scratch)) return entry - 1
+                slot = (slot + 1) and mask
+            }
+        }
+
+        /* Open addressing over ordinal + 1, probing from the first four bytes of the commit id. */
+        private fun index(ordinal: Int) {
+            if ((ordinal + 1) * 2 > index.size) {
+                index = IntArray(index.size * 2)
+                for (o in 0 until ordinal) insert(o)
+            }
+            insert(ordinal)
+        }
+
+        private fun insert(ordinal: Int) {
+            val mask = index.size - 1
+            var slot = hashes.buffer.getInt(ordinal * OBJECT_ID_LENGTH) and mask
+            while (index[slot] != 0) slot = (slot + 1) and mask
+            index[slot] = ordinal + 1
+        }
+
+        override fun close() {
+            (listOf(count, hashes, date, projectSize, stability) + counters).forEach { it.close() }
+        }
+
+        private fun MappedByteBuffer.hasId(ordinal: Int, id: ByteBuffer): Boolean =
+            slice(ordinal * OBJECT_ID_LENGTH, OBJECT_ID_LENGTH) == id.duplicate().clear()
+    }
+
+    private class Column(path: Path, val width: Int, initialRows: Int = INITIAL_ROWS) : AutoCloseable {
+        private val channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)
+        var buffer: MappedByteBuffer = map(maxOf(channel.size(), initialRows.toLong() * width))
+            private set
+
+        fun ensure(rows: Int) {
+            val needed = rows.toLong() * width
+            if (needed > buffer.capacity()) {
+                buffer.force()
+                buffer = map(maxOf(needed, buffer.capacity() * 2L))
+            }
+        }
+
+        /* Mapping past the end of the file grows it. */
+        private fun map(bytes: Long): MappedByteBuffer =
+            channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes).apply { order(ByteOrder.LITTLE_ENDIAN) }
+
+        override fun close() {
+            buffer.force()
+            channel.close()
+        }
+    }
+
+    private companion object {
+        const val INITIAL_ROWS = 1024
+        val COUNTERS = listOf("filesAdded", "filesDeleted", "filesModified", "linesAdded", "linesDeleted", "linesModified", "changes", "changesSize")
+    }
+}
@@ -0,0 +1,29 @@
+package org.repodriller.util
+
+import java.nio.ByteBuffer
+
+/* Raw 20-byte commit ids, for the binary formats that store many of them. */
+
+internal const val OBJECT_ID_LENGTH = 20
+
+private val HEX = "0123456789abcdef".toCharArray()
+
+internal fun putObjectId(hex: String, out: ByteBuffer) {
+    require(hex.length == 2 * OBJECT_ID_LENGTH) { "Not a commit id: $hex" }
+    for (i in 0 until OBJECT_ID_LENGTH) {
+        out.put((Character.digit(hex[2 * i], 16) shl 4 or Character.digit(hex[2 * i + 1], 16)).toByte())
+    }
+}
+
+internal fun objectIdBytes(hex: String): ByteArray =
+    ByteBuffer.allocate(OBJECT_ID_LENGTH).also { putObjectId(hex, it) }.array()
+
+internal fun getObjectId(buffer: ByteBuffer, offset: Int): String {
+    val hex = CharArray(2 * OBJECT_ID_LENGTH)
+    for (i in 0 until OBJECT_ID_LENGTH) {
+        val b = buffer.get(offset + i).toInt() and 0xff
+        hex[2 * i] = HEX[b shr 4]
+        hex[2 * i + 1] = HEX[b and 0xf]
+    }
+    return String(hex)
+}
@@ -0,0 +1,47 @@
+package org.repodriller.util
+
+import java.sql.Connection
+
+/**
+ * Per-connection SQLite settings, applied to every connection a [ConnectionManager] opens.
+ *
+ * [DEFAULT] uses WAL so that readers run concurrently with the single writer, NORMAL synchronous (durable at
+ * checkpoints, safe against corruption), a 64 MiB page cache, 256 MiB of memory-mapped I/O and in-memory temp
+ * tables, and incremental auto-vacuum for new database files. [LEGACY] keeps SQLite's own defaults.
+ */
+data class PragmaProfile(
+    val journalMode: String? = "WAL",
+    val synchronous: String? = "NORMAL",
+    /** Bytes of the database file to memory-map; 0 disables mmap. */
+    val mmapSize: Long? = 256L * 1024 * 1024,
+    /** Negative values are KiB, positive values are pages, as in PRAGMA cache_size. */
+    val cacheSize: Long? = -64L * 1024,
+    val tempStore: String? = "MEMORY",
+    val busyTimeoutMillis: Int? = 5000,
+    /** Only takes effect on a new, empty file; see [DataBaseUtil.enableIncrementalVacuum] for existing ones. */
+    val autoVacuum: String? = "INCREMENTAL",
+) {
+
+    fun apply(conn: Connection, readOnly: Boolean = false) {
+        conn.createStatement().use { stmt ->
+            busyTimeoutMillis?.let { stmt.execute("PRAGMA busy_timeout = $it") }
+            /* Both are stored in the database file, only the writer needs to set them; switching to WAL writes
+               the header of a new file, after which auto_vacuum can only change through VACUUM. */
+            if (!readOnly) autoVacuum?.let { stmt.execute("PRAGMA auto_vacuum = $it") }
+            if (!readOnly) journalMode?.let { stmt.execute("PRAGMA journal_mode = $it") }
+            synchronous?.let { stmt.execute("PRAGMA synchronous = $it") }
+            mmapSize?.let { stmt.execute("PRAGMA mmap_size = $it") }
+            cacheSize?.let { stmt.execute("PRAGMA cache_size = $it") }
+            tempStore?.let { stmt.execute("PRAGMA temp_store = $it") }
+            if (readOnly) stmt.execute("PRAGMA query_only = 1")
+        }
+    }
+
+    companion object {
+        @JvmField
+        val DEFAULT = PragmaProfile()
+
+        @JvmField
+        val LEGACY = PragmaProfile(null, null, null, null, null, null, null)
+    }
+}
@@ -0,0 +1,12 @@
+package org.repodriller.util
+
+/**
+ * The default [CommitStatsStore]: the Commits table itself. Ordinals follow the rowid, i.e. insertion order.
+ */
+class SqliteCommitStatsStore(private val dataBaseUtil: DataBaseUtil) : CommitStatsStore {
+
+    /* The commit writer has already stored the batch in Commits, in the same transaction as everything else. */
+    override fun append(projectId: Int, records: List<CommitRecord>) {}
+
+    override fun columns(projectId: Int): CommitColumns = dataBaseUtil.getCommitColumns(projectId)
+}